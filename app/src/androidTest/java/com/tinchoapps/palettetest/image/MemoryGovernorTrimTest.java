@@ -0,0 +1,95 @@
+package com.tinchoapps.palettetest.image;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import com.tinchoapps.palettetest.utils.BitmapPool;
+
+/**
+ * Synthetic trim events sent to the {@link MemoryGovernor} with its caches and pool filled up.
+ */
+public class MemoryGovernorTrimTest extends AndroidTestCase
+{
+    private static final int BITMAP_SIDE = 256;
+    private static final int MAX_PUTS = 256;
+
+    private MemoryGovernor memoryGovernor;
+    private BitmapCache bitmapCache;
+    private TileCache tileCache;
+    private BitmapPool bitmapPool;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        memoryGovernor = MemoryGovernor.getInstance(getContext());
+        bitmapCache = BitmapCache.getInstance(getContext());
+        tileCache = TileCache.getInstance();
+        bitmapPool = ImageLoader.getBitmapPool();
+        fill();
+    }
+
+    public void testRunningLowKeepsHalfTheCaches()
+    {
+        memoryGovernor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+
+        assertTrue(bitmapCache.getMemorySize() <= bitmapCache.getMaxMemorySize() / 2);
+        assertTrue(tileCache.getSize() <= tileCache.getMaxSize() / 2);
+        assertTrue(bitmapPool.getRetainedBytes() <= bitmapPool.getMaxBytes() / 4);
+    }
+
+    public void testRunningCriticalEmptiesThePool()
+    {
+        memoryGovernor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+
+        assertTrue(bitmapCache.getMemorySize() <= bitmapCache.getMaxMemorySize() / 4);
+        assertEquals(0, bitmapPool.getRetainedBytes());
+    }
+
+    public void testUiHiddenDropsTiles()
+    {
+        memoryGovernor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+
+        assertEquals(0, tileCache.getSize());
+        assertTrue(bitmapCache.getMemorySize() <= bitmapCache.getMaxMemorySize() / 2);
+    }
+
+    public void testCompleteReleasesEverything()
+    {
+        memoryGovernor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+
+        assertEquals(0, memoryGovernor.getHeldBytes());
+    }
+
+    public void testLowMemoryReleasesEverything()
+    {
+        memoryGovernor.onLowMemory();
+
+        assertEquals(0, memoryGovernor.getHeldBytes());
+    }
+
+    private void fill()
+    {
+        for (int i = 0; i < MAX_PUTS && bitmapCache.getMemorySize() < bitmapCache.getMaxMemorySize() * 9L / 10; i++)
+        {
+            bitmapCache.put(BitmapCache.createKey("/memory-governor-test/" + i, i, BITMAP_SIDE, 1), createBitmap());
+        }
+
+        for (int i = 0; i < MAX_PUTS && tileCache.getSize() < tileCache.getMaxSize() * 9L / 10; i++)
+        {
+            tileCache.put(TileCache.createKey("/memory-governor-test", 0, 1, i, 0), createBitmap());
+        }
+
+        for (int i = 0; i < MAX_PUTS && bitmapPool.getRetainedBytes() < bitmapPool.getMaxBytes() * 9 / 10; i++)
+        {
+            bitmapPool.put(createBitmap());
+        }
+
+        assertTrue(memoryGovernor.getHeldBytes() > 0);
+    }
+
+    private static Bitmap createBitmap()
+    {
+        return Bitmap.createBitmap(BITMAP_SIDE, BITMAP_SIDE, Bitmap.Config.ARGB_8888);
+    }
+}
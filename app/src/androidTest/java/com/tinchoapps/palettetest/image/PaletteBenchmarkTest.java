@@ -0,0 +1,130 @@
+package com.tinchoapps.palettetest.image;
+
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.support.v7.graphics.Palette;
+import android.util.Log;
+import com.tinchoapps.palettetest.utils.BitmapPool;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Latency and garbage per call of {@link PaletteExtractor} with its {@link MedianCutQuantizer},
+ * against Palette.Builder on the same bitmap and size. Results are logged under TAG.
+ */
+public class PaletteBenchmarkTest extends TestCase
+{
+    private static final String TAG = "PaletteBenchmark";
+    private static final int BITMAP_SIDE = 1024;
+    private static final int WARMUP_RUNS = 20;
+    private static final int RUNS = 200;
+
+    private Bitmap bitmap;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        bitmap = createNoisyGradient(BITMAP_SIDE, new Random(1));
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        bitmap.recycle();
+        super.tearDown();
+    }
+
+    public void testExtractorAllocatesLessThanPaletteBuilder()
+    {
+        final PaletteExtractor extractor = new PaletteExtractor(PaletteExtractor.DEFAULT_MAX_AREA, new BitmapPool(4 * 1024 * 1024));
+        //resizeBitmapSize is the longer side, the same as DEFAULT_MAX_AREA for a square bitmap
+        final int resizeSide = (int) Math.sqrt(PaletteExtractor.DEFAULT_MAX_AREA);
+
+        Result extractorResult = measure(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                extractor.extract(bitmap);
+            }
+        });
+        Result builderResult = measure(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                new Palette.Builder(bitmap).maximumColorCount(PaletteExtractor.DEFAULT_MAX_COLOR_COUNT).resizeBitmapSize(resizeSide).generate();
+            }
+        });
+
+        Log.i(TAG, "PaletteExtractor: " + extractorResult);
+        Log.i(TAG, "Palette.Builder:  " + builderResult);
+
+        assertTrue("Extractor allocated " + extractorResult.bytesPerCall + " bytes per call, Palette.Builder " + builderResult.bytesPerCall,
+                extractorResult.bytesPerCall < builderResult.bytesPerCall);
+    }
+
+    private static Result measure(Runnable call)
+    {
+        for (int i = 0; i < WARMUP_RUNS; i++)
+        {
+            call.run();
+        }
+
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+
+        try
+        {
+            for (int i = 0; i < RUNS; i++)
+            {
+                call.run();
+            }
+        } finally
+        {
+            Debug.stopAllocCounting();
+        }
+
+        return new Result((System.nanoTime() - start) / RUNS, Debug.getThreadAllocSize() / RUNS);
+    }
+
+    // A diagonal gradient over every hue with noise, so the quantizers have many colors to cut.
+    private static Bitmap createNoisyGradient(int side, Random random)
+    {
+        int[] pixels = new int[side * side];
+
+        for (int y = 0; y < side; y++)
+        {
+            for (int x = 0; x < side; x++)
+            {
+                int red = (x * 255 / side + random.nextInt(16)) & 0xff;
+                int green = (y * 255 / side + random.nextInt(16)) & 0xff;
+                int blue = ((x + y) * 127 / side + random.nextInt(16)) & 0xff;
+                pixels[y * side + x] = 0xff000000 | (red << 16) | (green << 8) | blue;
+            }
+        }
+
+        return Bitmap.createBitmap(pixels, side, side, Bitmap.Config.ARGB_8888);
+    }
+
+    private static final class Result
+    {
+        final long nanosPerCall;
+        final long bytesPerCall;
+
+        Result(long nanosPerCall, long bytesPerCall)
+        {
+            this.nanosPerCall = nanosPerCall;
+            this.bytesPerCall = bytesPerCall;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%.2f ms, %d bytes per call", nanosPerCall / 1e6, bytesPerCall);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.tinchoapps.palettetest.image;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.v7.graphics.Palette;
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+public class PaletteCacheTest extends AndroidTestCase
+{
+    private static final int BITMAP_SIDE = 64;
+
+    private CountingQuantizer quantizer;
+    private ImageLoader imageLoader;
+    private PaletteCache paletteCache;
+    private Bitmap bitmap;
+    private String path;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        quantizer = new CountingQuantizer();
+        imageLoader = new ImageLoader(getContext(), new PaletteExtractor(PaletteExtractor.DEFAULT_MAX_AREA,
+                PaletteExtractor.DEFAULT_MAX_COLOR_COUNT, quantizer, null));
+        paletteCache = PaletteCache.getInstance(getContext());
+        bitmap = Bitmap.createBitmap(BITMAP_SIDE, BITMAP_SIDE, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xff1a3c8c);
+        //Never a real image, so nothing is cached for it yet
+        path = "/palette-cache-test/" + System.nanoTime() + ".jpg";
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        bitmap.recycle();
+        super.tearDown();
+    }
+
+    public void testWarmBindSkipsQuantization()
+    {
+        int hits = paletteCache.getHitCount();
+        int misses = paletteCache.getMissCount();
+
+        PaletteColors cold = imageLoader.loadPaletteColors(path, 1, bitmap);
+        PaletteColors warm = imageLoader.loadPaletteColors(path, 1, bitmap);
+
+        assertNotNull(cold);
+        assertSame(cold, warm);
+        assertEquals(1, quantizer.calls);
+        assertEquals(hits + 1, paletteCache.getHitCount());
+        assertEquals(misses + 1, paletteCache.getMissCount());
+    }
+
+    public void testBindWithoutBitmapUsesCachedColors()
+    {
+        PaletteColors cold = imageLoader.loadPaletteColors(path, 1, bitmap);
+
+        assertSame(cold, imageLoader.loadPaletteColors(path, 1, null));
+        assertSame(cold, imageLoader.getCachedPaletteColors(path, 1));
+        assertEquals(1, quantizer.calls);
+    }
+
+    public void testModifiedImageIsQuantizedAgain()
+    {
+        imageLoader.loadPaletteColors(path, 1, bitmap);
+        imageLoader.loadPaletteColors(path, 2, bitmap);
+
+        assertEquals(2, quantizer.calls);
+    }
+
+    public void testPreviewColorsAreNotCached()
+    {
+        Bitmap thumbnail = Bitmap.createBitmap(BITMAP_SIDE / 4, BITMAP_SIDE / 4, Bitmap.Config.ARGB_8888);
+        thumbnail.eraseColor(0xff8c3c1a);
+
+        try
+        {
+            assertNotNull(imageLoader.extractPaletteColors(thumbnail));
+            assertNull(imageLoader.getCachedPaletteColors(path, 1));
+
+            imageLoader.loadPaletteColors(path, 1, bitmap);
+            assertEquals(2, quantizer.calls);
+        } finally
+        {
+            thumbnail.recycle();
+        }
+    }
+
+    public void testFindIsNotCounted()
+    {
+        imageLoader.loadPaletteColors(path, 1, bitmap);
+        int hits = paletteCache.getHitCount();
+        int misses = paletteCache.getMissCount();
+
+        assertNotNull(paletteCache.find(path, 1));
+        assertNull(paletteCache.find(path, 2));
+        assertEquals(hits, paletteCache.getHitCount());
+        assertEquals(misses, paletteCache.getMissCount());
+    }
+
+    private static final class CountingQuantizer implements ColorQuantizer
+    {
+        private final MedianCutQuantizer quantizer = new MedianCutQuantizer();
+        int calls;
+
+        @NonNull
+        @Override
+        public List<Palette.Swatch> quantize(@NonNull Bitmap bitmap, int maxColorCount)
+        {
+            calls++;
+            return quantizer.quantize(bitmap, maxColorCount);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.tinchoapps.palettetest.utils;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Peak bytes and latency of the bounds-first decode of a large JPEG for a phone sized view.
+ * Results are logged under TAG.
+ * <p/>
+ * The JPEG is encoded on the device, so it is 12 MP: a 48 MP one would need a 192 MB bitmap to
+ * encode. It goes through the same path, only with a smaller sample size.
+ */
+public class DecodeBenchmarkTest extends AndroidTestCase
+{
+    private static final String TAG = "DecodeBenchmark";
+    private static final int IMAGE_WIDTH = 4000;
+    private static final int IMAGE_HEIGHT = 3000;
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int RUNS = 10;
+
+    private File jpeg;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        jpeg = new File(getContext().getCacheDir(), "decode_benchmark.jpg");
+        writeGradientJpeg(jpeg, IMAGE_WIDTH, IMAGE_HEIGHT);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        jpeg.delete();
+        super.tearDown();
+    }
+
+    public void testSampledDecodeStaysWithinBudget()
+    {
+        int maxSideLength = Math.max(VIEW_WIDTH, VIEW_HEIGHT);
+        int maxNumOfPixels = VIEW_WIDTH * VIEW_HEIGHT * 2;
+        long totalNanos = 0;
+        long maxBytes = 0;
+
+        for (int i = 0; i < RUNS; i++)
+        {
+            long start = System.nanoTime();
+            Bitmap bitmap = BitmapUtils.decodeSampledBitmap(jpeg.getAbsolutePath(), maxSideLength, maxNumOfPixels);
+            totalNanos += System.nanoTime() - start;
+
+            assertNotNull(bitmap);
+            maxBytes = Math.max(maxBytes, BitmapPool.getByteCount(bitmap));
+            bitmap.recycle();
+        }
+
+        Log.i(TAG, String.format("%dx%d for %dx%d: %.1f ms, %d KB (full decode %d KB)", IMAGE_WIDTH, IMAGE_HEIGHT, VIEW_WIDTH, VIEW_HEIGHT,
+                totalNanos / RUNS / 1e6, maxBytes / 1024, IMAGE_WIDTH * IMAGE_HEIGHT * 4 / 1024));
+
+        assertTrue("Decoded " + maxBytes + " bytes", maxBytes <= maxNumOfPixels * 4L * 101 / 100);
+    }
+
+    private static void writeGradientJpeg(File file, int width, int height) throws IOException
+    {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        int[] row = new int[width];
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                row[x] = 0xff000000 | ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | ((x ^ y) & 0xff);
+            }
+
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+
+        OutputStream out = new FileOutputStream(file);
+
+        try
+        {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally
+        {
+            out.close();
+            bitmap.recycle();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.tinchoapps.palettetest.utils;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Throughput of {@link BitmapUtils#copyBitmapToDestination} over 500 imports, and the open file
+ * descriptors of the process before and after, which must not grow. Results are logged under TAG.
+ */
+public class ImportBenchmarkTest extends AndroidTestCase
+{
+    private static final String TAG = "ImportBenchmark";
+    private static final int IMPORTS = 500;
+    private static final int MAX_SIDE = 1024;
+    //Other threads of the process may open a few descriptors meanwhile
+    private static final int FD_SLACK = 4;
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        directory = new File(getContext().getCacheDir(), "import_benchmark");
+        assertTrue(directory.isDirectory() || directory.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        File[] files = directory.listFiles();
+
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+
+        directory.delete();
+        super.tearDown();
+    }
+
+    /**
+     * An 8 MP camera sized JPEG, decoded, resized and encoded again.
+     */
+    public void testResizedImports() throws IOException
+    {
+        runImports(writeJpeg(new File(directory, "camera.jpg"), 3264, 2448), "resized");
+    }
+
+    /**
+     * A JPEG that already fits, copied as is.
+     */
+    public void testCopiedImports() throws IOException
+    {
+        runImports(writeJpeg(new File(directory, "small.jpg"), MAX_SIDE, MAX_SIDE * 3 / 4), "copied");
+    }
+
+    private void runImports(File source, String name) throws IOException
+    {
+        Uri uri = Uri.fromFile(source);
+        int fdsBefore = countOpenFileDescriptors();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < IMPORTS; i++)
+        {
+            File destination = new File(directory, "import_" + i + ".jpg");
+
+            assertNotNull(BitmapUtils.copyBitmapToDestination(getContext(), uri, MAX_SIDE, MAX_SIDE, destination, true));
+            assertTrue(destination.length() > 0);
+            destination.delete();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int fdsAfter = countOpenFileDescriptors();
+
+        Log.i(TAG, String.format("%s: %d imports in %.1f s, %.1f images/s, %d -> %d file descriptors", name, IMPORTS, seconds,
+                IMPORTS / seconds, fdsBefore, fdsAfter));
+
+        assertTrue("File descriptors went from " + fdsBefore + " to " + fdsAfter, fdsAfter <= fdsBefore + FD_SLACK);
+    }
+
+    private static int countOpenFileDescriptors()
+    {
+        String[] fds = new File("/proc/self/fd").list();
+        return fds != null ? fds.length : 0;
+    }
+
+    private static File writeJpeg(File file, int width, int height) throws IOException
+    {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        int[] row = new int[width];
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                row[x] = 0xff000000 | ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | ((x ^ y) & 0xff);
+            }
+
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+
+        OutputStream out = new FileOutputStream(file);
+
+        try
+        {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally
+        {
+            out.close();
+            bitmap.recycle();
+        }
+
+        return file;
+    }
+}
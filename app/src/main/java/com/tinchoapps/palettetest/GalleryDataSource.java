@@ -0,0 +1,363 @@
+package com.tinchoapps.palettetest;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.provider.MediaStore;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * The images of the gallery, newest first, without holding them all: the total count is queried
+ * on its own and rows are read from a {@link GalleryIndex} window of windowSize rows around the
+ * position being accessed. When an access gets close to an edge of the window, the window is
+ * moved around it in the background. An access outside the window gets the current window, which
+ * doesn't contain it, while the window around it loads; the {@link OnWindowLoadedListener} is told
+ * once it is there.
+ * <p/>
+ * A window is queried by seeking from an edge row of the current one, on the sort columns,
+ * rather than by an offset the database would have to count rows up to. Only the first window
+ * and windows away from any row already read are queried at an offset.
+ * <p/>
+ * Must be used from the UI thread, except {@link #open}.
+ */
+public final class GalleryDataSource
+{
+    private static final String TAG = "GalleryDataSource";
+    private static final Uri CONTENT_URI = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+    private static final String DATE_TAKEN = MediaStore.Images.Media.DATE_TAKEN;
+    private static final String ID = MediaStore.Images.Media._ID;
+    //Rows without date taken sort last, as NULL is the smallest value
+    private static final String SORT_ORDER = DATE_TAKEN + " DESC, " + ID + " DESC";
+    private static final String REVERSE_SORT_ORDER = DATE_TAKEN + " ASC, " + ID + " ASC";
+    //Part of the window kept on each side of an access before it's moved
+    private static final int WINDOW_MARGIN_FRACTION = 4;
+
+    private final ContentResolver resolver;
+    private final int windowSize;
+    private final int count;
+
+    private GalleryIndex window;
+    //The start the window was queried at, it may not contain it if the images changed
+    private int queriedStart;
+    private WindowTask windowTask;
+    private OnWindowLoadedListener listener;
+    private int primaryPosition;
+    private boolean closed;
+
+    /**
+     * Told when a window requested by an access outside the previous one has loaded.
+     */
+    public interface OnWindowLoadedListener
+    {
+        void onWindowLoaded(@NonNull GalleryDataSource dataSource);
+    }
+
+    private GalleryDataSource(ContentResolver resolver, int windowSize, int count, GalleryIndex window, int queriedStart)
+    {
+        this.resolver = resolver;
+        this.windowSize = windowSize;
+        this.count = count;
+        this.window = window;
+        this.queriedStart = queriedStart;
+    }
+
+    /**
+     * Query the count and the window around position. Must be called from a background thread.
+     */
+    @NonNull
+    public static GalleryDataSource open(@NonNull ContentResolver resolver, int windowSize, int position)
+    {
+        int count = queryCount(resolver);
+        int start = getWindowStart(position, windowSize, count);
+
+        return new GalleryDataSource(resolver, windowSize, count, queryWindow(resolver, start, windowSize), start);
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public void setOnWindowLoadedListener(@Nullable OnWindowLoadedListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * The window of rows that contains position, which must be between 0 and getCount() - 1.
+     * The window doesn't contain it while the window around it loads, or if the images changed
+     * since the count was queried.
+     */
+    @NonNull
+    public GalleryIndex getWindow(int position)
+    {
+        if (!window.contains(position))
+        {
+            int start = getWindowStart(position, windowSize, count);
+
+            //A window already queried at start misses the position because the count is stale,
+            //querying it again would give the same rows until the data source is reloaded
+            if (start != queriedStart && (windowTask == null || windowTask.start != start))
+            {
+                cancelWindowTask();
+                windowTask = new WindowTask(start, true);
+                windowTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
+        } else
+        {
+            moveWindowIfNeeded(position);
+        }
+
+        return window;
+    }
+
+    /**
+     * The window if it contains position, null otherwise. Unlike {@link #getWindow} it neither
+     * moves the window nor loads the one around position.
+     */
+    @Nullable
+    public GalleryIndex peekWindow(int position)
+    {
+        return window.contains(position) ? window : null;
+    }
+
+    /**
+     * The window as it is, without moving it.
+     */
+    @NonNull
+    public GalleryIndex getCurrentWindow()
+    {
+        return window;
+    }
+
+    /**
+     * Set the position of the page being shown, where the window of a reload should be.
+     */
+    public void setPrimaryPosition(int position)
+    {
+        primaryPosition = position;
+    }
+
+    public int getPrimaryPosition()
+    {
+        return primaryPosition;
+    }
+
+    /**
+     * The position of the row with the MediaStore id, looking around hint. -1 if it is not there.
+     */
+    public int findPosition(long id, int hint)
+    {
+        if (hint < 0 || hint >= count)
+        {
+            return -1;
+        }
+
+        return getWindow(hint).indexOfId(id, hint);
+    }
+
+    public void close()
+    {
+        closed = true;
+        cancelWindowTask();
+    }
+
+    private void moveWindowIfNeeded(int position)
+    {
+        int margin = windowSize / WINDOW_MARGIN_FRACTION;
+        int start = getWindowStart(position, windowSize, count);
+        int windowStart = window.getStart();
+        boolean nearStart = position - windowStart < margin && windowStart > 0;
+        boolean nearEnd = windowStart + window.size() - position <= margin && windowStart + window.size() < count;
+
+        if ((nearStart || nearEnd) && start != windowStart && (windowTask == null || windowTask.start != start))
+        {
+            cancelWindowTask();
+            windowTask = new WindowTask(start, false);
+            windowTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    private void cancelWindowTask()
+    {
+        if (windowTask != null)
+        {
+            windowTask.cancel(false);
+            windowTask = null;
+        }
+    }
+
+    private static int getWindowStart(int position, int windowSize, int count)
+    {
+        return Math.max(0, Math.min(position - windowSize / 2, count - windowSize));
+    }
+
+    private static int queryCount(@NonNull ContentResolver resolver)
+    {
+        Cursor cursor = null;
+
+        try
+        {
+            cursor = resolver.query(CONTENT_URI, new String[]{"count(*)"}, null, null, null);
+
+            if (cursor != null && cursor.moveToFirst())
+            {
+                return cursor.getInt(0);
+            }
+        } catch (RuntimeException e)
+        {
+            //Providers that don't accept expressions in the projection
+            Log.w(TAG, "Unable to query count, counting ids instead.", e);
+        } finally
+        {
+            if (cursor != null)
+            {
+                cursor.close();
+            }
+        }
+
+        try
+        {
+            cursor = resolver.query(CONTENT_URI, new String[]{MediaStore.Images.Media._ID}, null, null, null);
+            return cursor != null ? cursor.getCount() : 0;
+        } finally
+        {
+            if (cursor != null)
+            {
+                cursor.close();
+            }
+        }
+    }
+
+    @NonNull
+    private static GalleryIndex queryWindow(@NonNull ContentResolver resolver, int start, int size)
+    {
+        return query(resolver, null, null, SORT_ORDER + " LIMIT " + size + " OFFSET " + start, start, false);
+    }
+
+    /**
+     * Query the window of size rows from start seeking from the closest edge row of seed: after
+     * the row before start going forward, or before the row after the window going backward.
+     * Falls back to an offset when seed has no row to seek from.
+     */
+    @NonNull
+    private static GalleryIndex queryWindow(@NonNull ContentResolver resolver, @NonNull GalleryIndex seed, int start, int size)
+    {
+        int seedStart = seed.getStart();
+        int seedEnd = seedStart + seed.size();
+
+        if (seed.size() > 0 && start > seedStart)
+        {
+            int anchor = Math.min(start - 1, seedEnd - 1);
+            long dateTaken = seed.getDateTaken(anchor);
+            String id = String.valueOf(seed.getId(anchor));
+            String selection;
+            String[] selectionArgs;
+
+            if (dateTaken != GalleryIndex.DATE_TAKEN_UNKNOWN)
+            {
+                selection = "(" + DATE_TAKEN + " < ? OR (" + DATE_TAKEN + " = ? AND " + ID + " < ?) OR " + DATE_TAKEN + " IS NULL)";
+                selectionArgs = new String[]{String.valueOf(dateTaken), String.valueOf(dateTaken), id};
+            } else
+            {
+                selection = "(" + DATE_TAKEN + " IS NULL AND " + ID + " < ?)";
+                selectionArgs = new String[]{id};
+            }
+
+            return query(resolver, selection, selectionArgs, getSeekOrder(SORT_ORDER, size, start - 1 - anchor), start, false);
+        }
+
+        if (seed.size() > 0 && start < seedStart && start + size < seedEnd)
+        {
+            int anchor = Math.max(start + size, seedStart);
+            long dateTaken = seed.getDateTaken(anchor);
+            String id = String.valueOf(seed.getId(anchor));
+            String selection;
+            String[] selectionArgs;
+
+            if (dateTaken != GalleryIndex.DATE_TAKEN_UNKNOWN)
+            {
+                selection = "(" + DATE_TAKEN + " > ? OR (" + DATE_TAKEN + " = ? AND " + ID + " > ?))";
+                selectionArgs = new String[]{String.valueOf(dateTaken), String.valueOf(dateTaken), id};
+            } else
+            {
+                selection = "(" + DATE_TAKEN + " IS NOT NULL OR " + ID + " > ?)";
+                selectionArgs = new String[]{id};
+            }
+
+            return query(resolver, selection, selectionArgs, getSeekOrder(REVERSE_SORT_ORDER, size, anchor - start - size), start, true);
+        }
+
+        return queryWindow(resolver, start, size);
+    }
+
+    @NonNull
+    private static String getSeekOrder(@NonNull String sortOrder, int size, int skipped)
+    {
+        return sortOrder + " LIMIT " + size + (skipped > 0 ? " OFFSET " + skipped : "");
+    }
+
+    @NonNull
+    private static GalleryIndex query(@NonNull ContentResolver resolver, @Nullable String selection, @Nullable String[] selectionArgs, @NonNull String sortOrder,
+                                      int start, boolean reversed)
+    {
+        Cursor cursor = null;
+
+        try
+        {
+            cursor = resolver.query(CONTENT_URI, GalleryIndex.PROJECTION, selection, selectionArgs, sortOrder);
+            return cursor != null ? GalleryIndex.fromCursor(cursor, start, reversed) : GalleryIndex.EMPTY;
+        } finally
+        {
+            if (cursor != null)
+            {
+                cursor.close();
+            }
+        }
+    }
+
+    private final class WindowTask extends AsyncTask<Void, Void, GalleryIndex>
+    {
+        private final int start;
+        //Whether it loads a position outside the window, which pages are waiting for
+        private final boolean miss;
+        //The window it seeks from
+        private final GalleryIndex seed;
+
+        WindowTask(int start, boolean miss)
+        {
+            this.start = start;
+            this.miss = miss;
+            this.seed = window;
+        }
+
+        @Override
+        protected GalleryIndex doInBackground(final Void... params)
+        {
+            return queryWindow(resolver, seed, start, windowSize);
+        }
+
+        @Override
+        protected void onPostExecute(final GalleryIndex index)
+        {
+            if (windowTask == this)
+            {
+                windowTask = null;
+            }
+
+            if (!closed)
+            {
+                window = index;
+                queriedStart = start;
+
+                if (miss && listener != null)
+                {
+                    listener.onWindowLoaded(GalleryDataSource.this);
+                }
+            }
+        }
+    }
+}
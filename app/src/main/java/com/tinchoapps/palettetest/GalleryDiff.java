@@ -0,0 +1,297 @@
+package com.tinchoapps.palettetest;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes between two snapshots of the gallery, matching the rows of their windows by their
+ * MediaStore _ID.
+ * <p/>
+ * The rows found in both windows anchor the comparison. Since the order of the gallery is kept,
+ * a row of one window that is between the anchors would be between them in the other window too,
+ * so if it is missing there it was removed, or inserted. A row outside the anchors may just have
+ * been shifted out of the other window, so it is only compared when the other window reaches that
+ * end of its snapshot.
+ * <p/>
+ * Rows in both windows whose order changed relative to the others are moves: the fewest rows
+ * that have to move for the rest to keep their order. Rows only shifted by other changes are not.
+ */
+public final class GalleryDiff
+{
+    /**
+     * The row is not in the new snapshot.
+     */
+    public static final int POSITION_REMOVED = -1;
+    /**
+     * The row was not in the old window, or is not in the new one and may be outside of it, so
+     * the diff doesn't know where it went.
+     */
+    public static final int POSITION_UNKNOWN = -2;
+
+    private final Map<Long, Integer> newPositions = new HashMap<>();
+    //Each list sorted by position, old for the removals and moves, new for the insertions
+    private final List<Change> removals = new ArrayList<>();
+    private final List<Change> insertions = new ArrayList<>();
+    private final List<Change> moves = new ArrayList<>();
+    //Whether any row of both windows is at another position, moved or not
+    private boolean shifted;
+
+    /**
+     * Receives the changes of a diff. Old positions are in the old snapshot and new positions in
+     * the new one, they are not shifted by the changes reported before.
+     */
+    public interface Callback
+    {
+        void onRemoved(int oldPosition, long id);
+
+        void onInserted(int newPosition, long id);
+
+        void onMoved(int oldPosition, int newPosition, long id);
+    }
+
+    private GalleryDiff()
+    {
+    }
+
+    /**
+     * Compare the window of the old snapshot with the one of the new snapshot.
+     *
+     * @param oldCount rows in the whole old snapshot
+     * @param newCount rows in the whole new snapshot
+     */
+    @NonNull
+    public static GalleryDiff compute(@NonNull GalleryIndex oldWindow, int oldCount, @NonNull GalleryIndex newWindow, int newCount)
+    {
+        GalleryDiff diff = new GalleryDiff();
+        Map<Long, Integer> oldPositions = getPositions(oldWindow);
+        Map<Long, Integer> newPositions = getPositions(newWindow);
+        //The rows in both windows, in their old order
+        List<Change> common = new ArrayList<>();
+
+        for (Map.Entry<Long, Integer> entry : oldPositions.entrySet())
+        {
+            Integer newPosition = newPositions.get(entry.getKey());
+
+            if (newPosition != null)
+            {
+                common.add(new Change(entry.getValue(), newPosition, entry.getKey()));
+                diff.shifted |= newPosition.intValue() != entry.getValue();
+            }
+        }
+
+        Collections.sort(common, Change.BY_OLD_POSITION);
+
+        //The first and last rows of each window that are in both
+        int firstOldAnchor = common.isEmpty() ? -1 : common.get(0).oldPosition;
+        int lastOldAnchor = common.isEmpty() ? -1 : common.get(common.size() - 1).oldPosition;
+        int firstNewAnchor = -1;
+        int lastNewAnchor = -1;
+
+        for (Change change : common)
+        {
+            firstNewAnchor = firstNewAnchor < 0 ? change.newPosition : Math.min(firstNewAnchor, change.newPosition);
+            lastNewAnchor = Math.max(lastNewAnchor, change.newPosition);
+        }
+
+        diff.newPositions.putAll(newPositions);
+
+        for (Map.Entry<Long, Integer> entry : oldPositions.entrySet())
+        {
+            if (!newPositions.containsKey(entry.getKey()) && isCovered(entry.getValue(), firstOldAnchor, lastOldAnchor, newWindow, newCount))
+            {
+                diff.newPositions.put(entry.getKey(), POSITION_REMOVED);
+                diff.removals.add(new Change(entry.getValue(), POSITION_REMOVED, entry.getKey()));
+            }
+        }
+
+        for (Map.Entry<Long, Integer> entry : newPositions.entrySet())
+        {
+            if (!oldPositions.containsKey(entry.getKey()) && isCovered(entry.getValue(), firstNewAnchor, lastNewAnchor, oldWindow, oldCount))
+            {
+                diff.insertions.add(new Change(POSITION_UNKNOWN, entry.getValue(), entry.getKey()));
+            }
+        }
+
+        Collections.sort(diff.removals, Change.BY_OLD_POSITION);
+        Collections.sort(diff.insertions, Change.BY_NEW_POSITION);
+        diff.moves.addAll(findMoves(common));
+
+        return diff;
+    }
+
+    /**
+     * Where the row with id is in the new snapshot: its position, {@link #POSITION_REMOVED} or
+     * {@link #POSITION_UNKNOWN}.
+     */
+    public int getNewPosition(long id)
+    {
+        Integer position = newPositions.get(id);
+        return position != null ? position : POSITION_UNKNOWN;
+    }
+
+    public int getRemovedCount()
+    {
+        return removals.size();
+    }
+
+    public int getInsertedCount()
+    {
+        return insertions.size();
+    }
+
+    public int getMovedCount()
+    {
+        return moves.size();
+    }
+
+    /**
+     * Whether every row the diff can tell about is still where it was, shifts included.
+     */
+    public boolean isEmpty()
+    {
+        return removals.isEmpty() && insertions.isEmpty() && moves.isEmpty() && !shifted;
+    }
+
+    /**
+     * Report the removals, from the last one, then the insertions, from the first one, then the
+     * moves in their old order.
+     */
+    public void dispatch(@NonNull Callback callback)
+    {
+        for (int i = removals.size() - 1; i >= 0; i--)
+        {
+            Change removal = removals.get(i);
+            callback.onRemoved(removal.oldPosition, removal.id);
+        }
+
+        for (Change insertion : insertions)
+        {
+            callback.onInserted(insertion.newPosition, insertion.id);
+        }
+
+        for (Change move : moves)
+        {
+            callback.onMoved(move.oldPosition, move.newPosition, move.id);
+        }
+    }
+
+    // The rows of common, in old order, outside a longest run of increasing new positions.
+    @NonNull
+    private static List<Change> findMoves(@NonNull List<Change> common)
+    {
+        int count = common.size();
+        //tails[length - 1] is the index of the smallest last new position of a run of length
+        int[] tails = new int[count];
+        int[] previous = new int[count];
+        int length = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            int newPosition = common.get(i).newPosition;
+            int low = 0;
+            int high = length;
+
+            while (low < high)
+            {
+                int middle = (low + high) >>> 1;
+
+                if (common.get(tails[middle]).newPosition < newPosition)
+                {
+                    low = middle + 1;
+                } else
+                {
+                    high = middle;
+                }
+            }
+
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            length = Math.max(length, low + 1);
+        }
+
+        boolean[] kept = new boolean[count];
+
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i])
+        {
+            kept[i] = true;
+        }
+
+        List<Change> moves = new ArrayList<>();
+
+        for (int i = 0; i < count; i++)
+        {
+            if (!kept[i])
+            {
+                moves.add(common.get(i));
+            }
+        }
+
+        return moves;
+    }
+
+    @NonNull
+    private static Map<Long, Integer> getPositions(@NonNull GalleryIndex window)
+    {
+        Map<Long, Integer> positions = new HashMap<>(window.size() * 2);
+
+        for (int position = window.getStart(); position < window.getStart() + window.size(); position++)
+        {
+            positions.put(window.getId(position), position);
+        }
+
+        return positions;
+    }
+
+    // Whether a row at position of one window would be in the other window if it were in its
+    // snapshot, given the first and last anchors of its window (-1 if there are none).
+    private static boolean isCovered(int position, int firstAnchor, int lastAnchor, @NonNull GalleryIndex otherWindow, int otherCount)
+    {
+        boolean otherHasStart = otherWindow.getStart() == 0;
+        boolean otherHasEnd = otherWindow.getStart() + otherWindow.size() >= otherCount;
+
+        if (firstAnchor < 0)
+        {
+            return otherHasStart && otherHasEnd;
+        }
+
+        return (position > firstAnchor || otherHasStart) && (position < lastAnchor || otherHasEnd);
+    }
+
+    // A row of the diff and its positions.
+    private static final class Change
+    {
+        static final Comparator<Change> BY_OLD_POSITION = new Comparator<Change>()
+        {
+            @Override
+            public int compare(final Change lhs, final Change rhs)
+            {
+                return lhs.oldPosition < rhs.oldPosition ? -1 : (lhs.oldPosition == rhs.oldPosition ? 0 : 1);
+            }
+        };
+        static final Comparator<Change> BY_NEW_POSITION = new Comparator<Change>()
+        {
+            @Override
+            public int compare(final Change lhs, final Change rhs)
+            {
+                return lhs.newPosition < rhs.newPosition ? -1 : (lhs.newPosition == rhs.newPosition ? 0 : 1);
+            }
+        };
+
+        final int oldPosition;
+        final int newPosition;
+        final long id;
+
+        Change(int oldPosition, int newPosition, long id)
+        {
+            this.oldPosition = oldPosition;
+            this.newPosition = newPosition;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.tinchoapps.palettetest;
+
+import android.database.Cursor;
+import android.provider.MediaStore;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Snapshot of consecutive gallery rows, read once from a cursor into one primitive array per
+ * column. Bucket names and mime types repeat a lot and are interned. Rows are accessed by their
+ * position in the whole gallery.
+ */
+public final class GalleryIndex
+{
+    public static final String[] PROJECTION = new String[]{
+            MediaStore.Images.Media._ID, MediaStore.Images.Media.DATA, MediaStore.Images.Media.DISPLAY_NAME, MediaStore.Images.Media.BUCKET_DISPLAY_NAME,
+            MediaStore.Images.Media.SIZE, MediaStore.Images.Media.DATE_MODIFIED, MediaStore.Images.Media.WIDTH, MediaStore.Images.Media.HEIGHT,
+            MediaStore.Images.Media.MIME_TYPE, MediaStore.Images.Media.DATE_TAKEN
+    };
+
+    /**
+     * The date taken of a row that doesn't have one, those rows sort last.
+     */
+    public static final long DATE_TAKEN_UNKNOWN = Long.MIN_VALUE;
+
+    public static final GalleryIndex EMPTY = new GalleryIndex(0, 0);
+
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_DATA = 1;
+    private static final int COLUMN_DISPLAY_NAME = 2;
+    private static final int COLUMN_BUCKET_DISPLAY_NAME = 3;
+    private static final int COLUMN_SIZE = 4;
+    private static final int COLUMN_DATE_MODIFIED = 5;
+    private static final int COLUMN_WIDTH = 6;
+    private static final int COLUMN_HEIGHT = 7;
+    private static final int COLUMN_MIME_TYPE = 8;
+    private static final int COLUMN_DATE_TAKEN = 9;
+
+    private final int start;
+    private final long[] ids;
+    private final String[] paths;
+    private final String[] displayNames;
+    private final String[] bucketDisplayNames;
+    private final long[] sizes;
+    private final long[] datesModified;
+    private final int[] widths;
+    private final int[] heights;
+    private final String[] mimeTypes;
+    private final long[] datesTaken;
+
+    private GalleryIndex(int start, int count)
+    {
+        this.start = start;
+        ids = new long[count];
+        paths = new String[count];
+        displayNames = new String[count];
+        bucketDisplayNames = new String[count];
+        sizes = new long[count];
+        datesModified = new long[count];
+        widths = new int[count];
+        heights = new int[count];
+        mimeTypes = new String[count];
+        datesTaken = new long[count];
+    }
+
+    /**
+     * Read every row of cursor, queried with {@link #PROJECTION}, as the rows from start on.
+     * The cursor is not closed.
+     */
+    @NonNull
+    public static GalleryIndex fromCursor(@NonNull Cursor cursor, int start)
+    {
+        return fromCursor(cursor, start, false);
+    }
+
+    /**
+     * Read every row of cursor, queried with {@link #PROJECTION}, as the rows from start on.
+     * The cursor is not closed.
+     *
+     * @param reversed whether the cursor has the rows in the reverse order, last one first
+     */
+    @NonNull
+    public static GalleryIndex fromCursor(@NonNull Cursor cursor, int start, boolean reversed)
+    {
+        GalleryIndex index = new GalleryIndex(start, cursor.getCount());
+        int count = index.ids.length;
+        int read = 0;
+
+        for (boolean hasRow = cursor.moveToFirst(); hasRow && read < count; hasRow = cursor.moveToNext(), read++)
+        {
+            int row = reversed ? count - 1 - read : read;
+
+            index.ids[row] = cursor.getLong(COLUMN_ID);
+            index.paths[row] = cursor.getString(COLUMN_DATA);
+            index.displayNames[row] = cursor.getString(COLUMN_DISPLAY_NAME);
+            index.bucketDisplayNames[row] = intern(cursor.getString(COLUMN_BUCKET_DISPLAY_NAME));
+            index.sizes[row] = cursor.getLong(COLUMN_SIZE);
+            index.datesModified[row] = cursor.getLong(COLUMN_DATE_MODIFIED);
+            index.widths[row] = cursor.getInt(COLUMN_WIDTH);
+            index.heights[row] = cursor.getInt(COLUMN_HEIGHT);
+            index.mimeTypes[row] = intern(cursor.getString(COLUMN_MIME_TYPE));
+            index.datesTaken[row] = cursor.isNull(COLUMN_DATE_TAKEN) ? DATE_TAKEN_UNKNOWN : cursor.getLong(COLUMN_DATE_TAKEN);
+        }
+
+        return index;
+    }
+
+    /**
+     * Position of the first row.
+     */
+    public int getStart()
+    {
+        return start;
+    }
+
+    public int size()
+    {
+        return ids.length;
+    }
+
+    public boolean contains(int position)
+    {
+        return position >= start && position < start + ids.length;
+    }
+
+    /**
+     * Position of the row with the MediaStore id, -1 if it is not in the index.
+     *
+     * @param hint position to look at first
+     */
+    public int indexOfId(long id, int hint)
+    {
+        if (contains(hint) && ids[hint - start] == id)
+        {
+            return hint;
+        }
+
+        for (int i = 0; i < ids.length; i++)
+        {
+            if (ids[i] == id)
+            {
+                return start + i;
+            }
+        }
+
+        return -1;
+    }
+
+    public long getId(int position)
+    {
+        return ids[position - start];
+    }
+
+    @Nullable
+    public String getPath(int position)
+    {
+        return paths[position - start];
+    }
+
+    public long getDateModified(int position)
+    {
+        return datesModified[position - start];
+    }
+
+    /**
+     * The date taken of the row, or {@link #DATE_TAKEN_UNKNOWN}.
+     */
+    public long getDateTaken(int position)
+    {
+        return datesTaken[position - start];
+    }
+
+    @NonNull
+    public GalleryItem getItem(int position)
+    {
+        int row = position - start;
+        return new GalleryItem(ids[row], paths[row], displayNames[row], bucketDisplayNames[row], sizes[row], datesModified[row],
+                widths[row], heights[row], mimeTypes[row]);
+    }
+
+    @Nullable
+    private static String intern(@Nullable String value)
+    {
+        return value != null ? value.intern() : null;
+    }
+}
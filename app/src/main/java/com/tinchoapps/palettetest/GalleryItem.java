@@ -0,0 +1,84 @@
+package com.tinchoapps.palettetest;
+
+import android.support.annotation.Nullable;
+
+/**
+ * One image of the gallery, as read from MediaStore.
+ */
+public final class GalleryItem
+{
+    private final long id;
+    private final String path;
+    private final String displayName;
+    private final String bucketDisplayName;
+    private final long size;
+    private final long dateModified;
+    private final int width;
+    private final int height;
+    private final String mimeType;
+
+    GalleryItem(long id, String path, String displayName, String bucketDisplayName, long size, long dateModified, int width, int height, String mimeType)
+    {
+        this.id = id;
+        this.path = path;
+        this.displayName = displayName;
+        this.bucketDisplayName = bucketDisplayName;
+        this.size = size;
+        this.dateModified = dateModified;
+        this.width = width;
+        this.height = height;
+        this.mimeType = mimeType;
+    }
+
+    public long getId()
+    {
+        return id;
+    }
+
+    /**
+     * The file of the image, MediaStore.Images.Media.DATA.
+     */
+    @Nullable
+    public String getPath()
+    {
+        return path;
+    }
+
+    @Nullable
+    public String getDisplayName()
+    {
+        return displayName;
+    }
+
+    @Nullable
+    public String getBucketDisplayName()
+    {
+        return bucketDisplayName;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public long getDateModified()
+    {
+        return dateModified;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    @Nullable
+    public String getMimeType()
+    {
+        return mimeType;
+    }
+}
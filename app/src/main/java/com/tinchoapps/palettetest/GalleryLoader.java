@@ -0,0 +1,120 @@
+package com.tinchoapps.palettetest;
+
+import android.content.Context;
+import android.provider.MediaStore;
+import android.support.annotation.NonNull;
+import android.support.v4.content.AsyncTaskLoader;
+
+/**
+ * Loads a {@link GalleryDataSource} and reloads it when the images change, closing the ones
+ * that are not used anymore.
+ */
+public class GalleryLoader extends AsyncTaskLoader<GalleryDataSource>
+{
+    private final int windowSize;
+    private final ForceLoadContentObserver observer = new ForceLoadContentObserver();
+    private GalleryDataSource dataSource;
+    private volatile int anchorPosition;
+    private boolean observerRegistered;
+
+    public GalleryLoader(@NonNull Context context, int windowSize)
+    {
+        super(context);
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public GalleryDataSource loadInBackground()
+    {
+        return GalleryDataSource.open(getContext().getContentResolver(), windowSize, anchorPosition);
+    }
+
+    @Override
+    protected void onForceLoad()
+    {
+        //Reload around the rows being shown, so the old and new windows can be compared
+        anchorPosition = dataSource != null ? dataSource.getPrimaryPosition() : 0;
+        super.onForceLoad();
+    }
+
+    @Override
+    public void deliverResult(final GalleryDataSource data)
+    {
+        if (isReset())
+        {
+            if (data != null)
+            {
+                data.close();
+            }
+
+            return;
+        }
+
+        GalleryDataSource oldDataSource = dataSource;
+        dataSource = data;
+
+        if (isStarted())
+        {
+            super.deliverResult(data);
+        }
+
+        if (oldDataSource != null && oldDataSource != data)
+        {
+            oldDataSource.close();
+        }
+    }
+
+    @Override
+    protected void onStartLoading()
+    {
+        if (!observerRegistered)
+        {
+            getContext().getContentResolver().registerContentObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, observer);
+            observerRegistered = true;
+        }
+
+        if (dataSource != null)
+        {
+            deliverResult(dataSource);
+        }
+
+        if (takeContentChanged() || dataSource == null)
+        {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading()
+    {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(final GalleryDataSource data)
+    {
+        if (data != null)
+        {
+            data.close();
+        }
+    }
+
+    @Override
+    protected void onReset()
+    {
+        super.onReset();
+        onStopLoading();
+
+        if (observerRegistered)
+        {
+            getContext().getContentResolver().unregisterContentObserver(observer);
+            observerRegistered = false;
+        }
+
+        if (dataSource != null)
+        {
+            dataSource.close();
+            dataSource = null;
+        }
+    }
+}
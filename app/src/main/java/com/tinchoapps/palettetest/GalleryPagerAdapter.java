@@ -0,0 +1,375 @@
+package com.tinchoapps.palettetest;
+
+
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentTransaction;
+import android.support.v4.view.PagerAdapter;
+import android.util.LongSparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Pages of the {@link GalleryDataSource}, like a FragmentStatePagerAdapter but keeping fragments
+ * and their saved state by the MediaStore id of their row instead of by position. When the data
+ * source changes, pages follow their row to its new position and keep their decoded bitmaps;
+ * only the pages of removed rows are destroyed.
+ * <p/>
+ * Positions outside the loaded window get placeholder pages, bound once their window loads.
+ */
+public class GalleryPagerAdapter<F extends Fragment> extends PagerAdapter implements GalleryDataSource.OnWindowLoadedListener
+{
+    public static final String ARG_POSITION = "position";
+    public static final String ARG_ID = "id";
+
+    private static final String STATE_IDS = "ids";
+    private static final String STATE_SAVED_STATES = "states";
+    private static final String STATE_FRAGMENT_PREFIX = "f";
+
+    private final FragmentManager fragmentManager;
+    private final Class<F> fragmentClass;
+    private final LongSparseArray<Fragment> fragments = new LongSparseArray<>();
+    private final LongSparseArray<Fragment.SavedState> savedStates = new LongSparseArray<>();
+    private FragmentTransaction transaction;
+    private Fragment primaryItem;
+    private GalleryDataSource dataSource;
+    //The changes being applied by notifyDataSetChanged
+    private GalleryDiff pendingDiff;
+
+    public GalleryPagerAdapter(FragmentManager fm, Class<F> fragmentClass, GalleryDataSource dataSource)
+    {
+        this.fragmentManager = fm;
+        this.fragmentClass = fragmentClass;
+        this.dataSource = dataSource;
+
+        if (dataSource != null)
+        {
+            dataSource.setOnWindowLoadedListener(this);
+        }
+    }
+
+    @Override
+    public int getCount()
+    {
+        if (dataSource == null)
+            return 0;
+        else
+            return dataSource.getCount();
+    }
+
+    /**
+     * The arguments of the fragment at position: only the position and the MediaStore id, the
+     * fragment reads the rest from the {@link GalleryDataSource}.
+     */
+    public Bundle getArguments(int position)
+    {
+        Bundle args = new Bundle();
+        args.putInt(ARG_POSITION, position);
+        args.putLong(ARG_ID, getItemId(position));
+        return args;
+    }
+
+    @Override
+    public Object instantiateItem(ViewGroup container, int position)
+    {
+        long id = getItemId(position);
+        Fragment fragment = fragments.get(id);
+
+        if (fragment != null)
+        {
+            fragment.getArguments().putInt(ARG_POSITION, position);
+            return fragment;
+        }
+
+        if (transaction == null)
+        {
+            transaction = fragmentManager.beginTransaction();
+        }
+
+        F frag;
+        try
+        {
+            frag = fragmentClass.newInstance();
+        } catch (Exception ex)
+        {
+            throw new RuntimeException(ex);
+        }
+        frag.setArguments(getArguments(position));
+
+        Fragment.SavedState state = savedStates.get(id);
+
+        if (state != null)
+        {
+            frag.setInitialSavedState(state);
+            savedStates.remove(id);
+        }
+
+        frag.setMenuVisibility(false);
+        frag.setUserVisibleHint(false);
+        fragments.put(id, frag);
+        transaction.add(container.getId(), frag);
+
+        return frag;
+    }
+
+    @Override
+    public void destroyItem(ViewGroup container, int position, Object object)
+    {
+        Fragment fragment = (Fragment) object;
+        long id = fragment.getArguments().getLong(ARG_ID);
+
+        if (transaction == null)
+        {
+            transaction = fragmentManager.beginTransaction();
+        }
+
+        if (fragments.get(id) == fragment)
+        {
+            fragments.remove(id);
+        }
+
+        boolean removed = pendingDiff != null && pendingDiff.getNewPosition(id) == GalleryDiff.POSITION_REMOVED;
+
+        if (id >= 0 && !removed && fragment.isAdded())
+        {
+            savedStates.put(id, fragmentManager.saveFragmentInstanceState(fragment));
+        }
+
+        transaction.remove(fragment);
+    }
+
+    /**
+     * Pages whose row moved get their new position, pages whose row is gone or that could not
+     * bind their row yet are recreated, the others are kept.
+     */
+    @Override
+    public int getItemPosition(Object object)
+    {
+        Fragment fragment = (Fragment) object;
+
+        if (dataSource == null || (fragment instanceof Page && !((Page) fragment).isBound()))
+        {
+            return POSITION_NONE;
+        }
+
+        Bundle args = fragment.getArguments();
+        long id = args.getLong(ARG_ID);
+        int oldPosition = args.getInt(ARG_POSITION);
+        int newPosition = pendingDiff != null ? pendingDiff.getNewPosition(id) : GalleryDiff.POSITION_UNKNOWN;
+
+        if (newPosition == GalleryDiff.POSITION_UNKNOWN)
+        {
+            newPosition = dataSource.findPosition(id, oldPosition);
+        }
+
+        if (newPosition < 0)
+        {
+            return POSITION_NONE;
+        }
+
+        if (newPosition == oldPosition)
+        {
+            return POSITION_UNCHANGED;
+        }
+
+        args.putInt(ARG_POSITION, newPosition);
+        return newPosition;
+    }
+
+    @Override
+    public void setPrimaryItem(ViewGroup container, int position, Object object)
+    {
+        Fragment fragment = (Fragment) object;
+
+        if (dataSource != null)
+        {
+            dataSource.setPrimaryPosition(position);
+        }
+
+        if (fragment != primaryItem)
+        {
+            if (primaryItem != null)
+            {
+                primaryItem.setMenuVisibility(false);
+                primaryItem.setUserVisibleHint(false);
+            }
+
+            if (fragment != null)
+            {
+                fragment.setMenuVisibility(true);
+                fragment.setUserVisibleHint(true);
+            }
+
+            primaryItem = fragment;
+        }
+    }
+
+    @Override
+    public void finishUpdate(ViewGroup container)
+    {
+        if (transaction != null)
+        {
+            transaction.commitAllowingStateLoss();
+            transaction = null;
+            fragmentManager.executePendingTransactions();
+        }
+    }
+
+    @Override
+    public boolean isViewFromObject(View view, Object object)
+    {
+        return ((Fragment) object).getView() == view;
+    }
+
+    @Override
+    public Parcelable saveState()
+    {
+        Bundle state = new Bundle();
+        long[] ids = new long[savedStates.size()];
+        Fragment.SavedState[] states = new Fragment.SavedState[savedStates.size()];
+
+        for (int i = 0; i < savedStates.size(); i++)
+        {
+            ids[i] = savedStates.keyAt(i);
+            states[i] = savedStates.valueAt(i);
+        }
+
+        state.putLongArray(STATE_IDS, ids);
+        state.putParcelableArray(STATE_SAVED_STATES, states);
+
+        for (int i = 0; i < fragments.size(); i++)
+        {
+            Fragment fragment = fragments.valueAt(i);
+
+            if (fragment.isAdded())
+            {
+                fragmentManager.putFragment(state, STATE_FRAGMENT_PREFIX + fragments.keyAt(i), fragment);
+            }
+        }
+
+        return state;
+    }
+
+    @Override
+    public void restoreState(Parcelable state, ClassLoader loader)
+    {
+        if (state == null)
+        {
+            return;
+        }
+
+        Bundle bundle = (Bundle) state;
+        bundle.setClassLoader(loader);
+        savedStates.clear();
+        fragments.clear();
+
+        long[] ids = bundle.getLongArray(STATE_IDS);
+        Parcelable[] states = bundle.getParcelableArray(STATE_SAVED_STATES);
+
+        if (ids != null && states != null)
+        {
+            for (int i = 0; i < ids.length; i++)
+            {
+                savedStates.put(ids[i], (Fragment.SavedState) states[i]);
+            }
+        }
+
+        for (String key : bundle.keySet())
+        {
+            if (key.startsWith(STATE_FRAGMENT_PREFIX))
+            {
+                Fragment fragment = fragmentManager.getFragment(bundle, key);
+
+                if (fragment != null)
+                {
+                    fragment.setMenuVisibility(false);
+                    fragments.put(Long.parseLong(key.substring(STATE_FRAGMENT_PREFIX.length())), fragment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Change the data source the pages come from, moving the pages to the new positions of their
+     * rows. The data source is owned by its loader, which closes it.
+     *
+     * @return the changes from the previous data source, null if there was none to compare with
+     */
+    public GalleryDiff swapDataSource(GalleryDataSource newDataSource)
+    {
+        if (dataSource == newDataSource)
+        {
+            return null;
+        }
+
+        GalleryDiff diff = null;
+
+        if (dataSource != null && newDataSource != null)
+        {
+            diff = GalleryDiff.compute(dataSource.getCurrentWindow(), dataSource.getCount(), newDataSource.getCurrentWindow(), newDataSource.getCount());
+
+            for (int i = savedStates.size() - 1; i >= 0; i--)
+            {
+                if (diff.getNewPosition(savedStates.keyAt(i)) == GalleryDiff.POSITION_REMOVED)
+                {
+                    savedStates.removeAt(i);
+                }
+            }
+        }
+
+        if (dataSource != null)
+        {
+            dataSource.setOnWindowLoadedListener(null);
+        }
+
+        if (newDataSource != null)
+        {
+            newDataSource.setOnWindowLoadedListener(this);
+        }
+
+        this.dataSource = newDataSource;
+        pendingDiff = diff;
+        notifyDataSetChanged();
+        pendingDiff = null;
+
+        return diff;
+    }
+
+    public GalleryDataSource getDataSource()
+    {
+        return dataSource;
+    }
+
+    /**
+     * Recreate the placeholder pages now that their rows may be there.
+     */
+    @Override
+    public void onWindowLoaded(@NonNull final GalleryDataSource loaded)
+    {
+        if (loaded == dataSource)
+        {
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * The MediaStore id of the row at position, or a negative key unique to position if the
+     * current window doesn't have it.
+     */
+    private long getItemId(int position)
+    {
+        GalleryIndex window = dataSource.getWindow(position);
+        return window.contains(position) ? window.getId(position) : -1L - position;
+    }
+
+    /**
+     * A fragment that shows a row of the data source.
+     */
+    public interface Page
+    {
+        boolean isBound();
+    }
+}
@@ -1,28 +1,34 @@
 package com.tinchoapps.palettetest;
 
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewPager;
 import android.support.v7.app.AppCompatActivity;
 import android.view.Menu;
 import android.view.MenuItem;
 import com.crashlytics.android.Crashlytics;
+import com.tinchoapps.palettetest.image.MemoryGovernor;
+import com.tinchoapps.palettetest.image.PagePrefetcher;
+import com.tinchoapps.palettetest.image.PaletteIndexService;
+import com.tinchoapps.palettetest.image.PipelineMetrics;
 import io.fabric.sdk.android.Fabric;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
-public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>
+
+public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<GalleryDataSource>, MainFragment.GalleryHost
 {
     private static final int LOAD_GALLERY = 0;
-    private final String[] projection = new String[]{
-            MediaStore.Images.Media.DISPLAY_NAME, MediaStore.Images.Media.BUCKET_DISPLAY_NAME, MediaStore.Images.Media.SIZE, MediaStore.Images.Media.DATA
-    };
 
-    private CursorPagerAdapter<MainFragment> galleryAdapter;
+    private static final int PREFETCH_AHEAD = 2;
+    private static final int PREFETCH_BEHIND = 1;
+    private static final int PREFETCH_MEMORY_FRACTION = 16;
+    private static final int GALLERY_WINDOW_SIZE = 100;
+
+    private GalleryPagerAdapter<MainFragment> galleryAdapter;
+    private PagePrefetcher pagePrefetcher;
 
     @Override
     protected void onCreate(Bundle savedInstanceState)
@@ -30,12 +36,35 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         super.onCreate(savedInstanceState);
         Fabric.with(this, new Crashlytics());
         setContentView(R.layout.activity_main);
+        //Before anything sizes its caches from the memory budget
+        MemoryGovernor.getInstance(this);
 
         getSupportLoaderManager().restartLoader(LOAD_GALLERY, null, this);
+        PaletteIndexService.start(this);
 
         ViewPager viewPager = (ViewPager) findViewById(R.id.view_pager);
-        galleryAdapter = new CursorPagerAdapter<>(getSupportFragmentManager(), MainFragment.class, projection, null);
+        galleryAdapter = new GalleryPagerAdapter<>(getSupportFragmentManager(), MainFragment.class, null);
         viewPager.setAdapter(galleryAdapter);
+
+        pagePrefetcher = new PagePrefetcher(this, viewPager, new PagePrefetcher.PageSource()
+        {
+            @Override
+            public int getCount()
+            {
+                return galleryAdapter.getCount();
+            }
+
+            @Override
+            public PagePrefetcher.PageImage getImage(final int position)
+            {
+                //Only pages already in the window, prefetching must not move it
+                GalleryIndex window = galleryAdapter.getDataSource().peekWindow(position);
+                String path = window != null ? window.getPath(position) : null;
+
+                return path != null ? new PagePrefetcher.PageImage(path, window.getDateModified(position)) : null;
+            }
+        }, PREFETCH_AHEAD, PREFETCH_BEHIND, MemoryGovernor.getMemoryBudget() / PREFETCH_MEMORY_FRACTION);
+        viewPager.setOnPageChangeListener(pagePrefetcher);
     }
 
 
@@ -64,36 +93,96 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Adds the image pipeline metrics to the dump, read with
+     * adb shell dumpsys activity com.tinchoapps.palettetest/.MainActivity
+     */
+    @Override
+    public void dump(final String prefix, final FileDescriptor fd, final PrintWriter writer, final String[] args)
+    {
+        super.dump(prefix, fd, writer, args);
+        PipelineMetrics.getInstance().dump(this, prefix, writer);
+        MemoryGovernor.getInstance(this).dump(prefix, writer);
+    }
+
+    @Override
+    public void onTrimMemory(final int level)
+    {
+        super.onTrimMemory(level);
+
+        //Prefetched pages would be trimmed from the caches right away
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL)
+        {
+            pagePrefetcher.cancelAll();
+        }
+    }
+
+    @Override
+    public GalleryDataSource getGalleryDataSource()
+    {
+        return galleryAdapter.getDataSource();
+    }
+
     @Override
-    public Loader<Cursor> onCreateLoader(final int id, final Bundle args)
+    public Loader<GalleryDataSource> onCreateLoader(final int id, final Bundle args)
     {
-        CursorLoader cursorLoader = null;
+        GalleryLoader galleryLoader = null;
 
         switch (id)
         {
             case LOAD_GALLERY:
-                Uri imagesUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-                cursorLoader = new CursorLoader(this, imagesUri, projection, null, null, null);
+                galleryLoader = new GalleryLoader(this, GALLERY_WINDOW_SIZE);
                 break;
         }
 
-        return cursorLoader;
+        return galleryLoader;
     }
 
     @Override
-    public void onLoadFinished(final Loader<Cursor> loader, final Cursor data)
+    public void onLoadFinished(final Loader<GalleryDataSource> loader, final GalleryDataSource data)
     {
         switch (loader.getId())
         {
             case LOAD_GALLERY:
-                galleryAdapter.changeCursor(data);
+                GalleryDiff diff = galleryAdapter.swapDataSource(data);
+
+                if (diff == null)
+                {
+                    pagePrefetcher.refresh();
+                } else if (!diff.isEmpty())
+                {
+                    //Drop the prefetches of rows that left their page, then fill in around the current one
+                    diff.dispatch(new GalleryDiff.Callback()
+                    {
+                        @Override
+                        public void onRemoved(final int oldPosition, final long id)
+                        {
+                            pagePrefetcher.cancel(oldPosition);
+                        }
+
+                        @Override
+                        public void onInserted(final int newPosition, final long id)
+                        {
+                            //Prefetched by update() if it is in range
+                        }
+
+                        @Override
+                        public void onMoved(final int oldPosition, final int newPosition, final long id)
+                        {
+                            pagePrefetcher.cancel(oldPosition);
+                        }
+                    });
+                    pagePrefetcher.update();
+                }
+                //Else nothing changed around the current page, the pending prefetches are still right
                 break;
         }
     }
 
     @Override
-    public void onLoaderReset(final Loader<Cursor> loader)
+    public void onLoaderReset(final Loader<GalleryDataSource> loader)
     {
-        galleryAdapter.changeCursor(null);
+        galleryAdapter.swapDataSource(null);
+        pagePrefetcher.cancelAll();
     }
 }
@@ -1,34 +1,53 @@
 package com.tinchoapps.palettetest;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.media.ExifInterface;
-import android.net.Uri;
+import android.graphics.drawable.TransitionDrawable;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.provider.MediaStore;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
-import android.support.v7.graphics.Palette;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 import android.widget.TextView;
-import com.tinchoapps.palettetest.utils.BitmapUtils;
-
-public class MainFragment extends Fragment
+import com.tinchoapps.palettetest.image.DecodeResult;
+import com.tinchoapps.palettetest.image.ImageExecutor;
+import com.tinchoapps.palettetest.image.ImageLoader;
+import com.tinchoapps.palettetest.image.PaletteCache;
+import com.tinchoapps.palettetest.image.PaletteColors;
+import com.tinchoapps.palettetest.image.PipelineMetrics;
+import com.tinchoapps.palettetest.image.TiledImageView;
+import com.tinchoapps.palettetest.utils.OrientationResolver;
+
+public class MainFragment extends Fragment implements GalleryPagerAdapter.Page
 {
+    private static final String TAG = "MainFragment";
+    private static final int CROSS_FADE_MILLIS = 200;
+
     private ImageView imageView;
+    private TiledImageView tiledImageView;
     private TextView titleView;
     private TextView subTitleView;
     private View titleContainerView;
+    private DecodeBitmapTask decodeTask;
+    private ImageExecutor.PriorityExecutor decodeExecutor;
+    private GalleryItem item;
+    private long createdNanos;
+    private long viewCreatedNanos;
+    private boolean firstPixelRecorded;
+
+    @Override
+    public void onCreate(@Nullable final Bundle savedInstanceState)
+    {
+        super.onCreate(savedInstanceState);
+        createdNanos = System.nanoTime();
+    }
 
     @Nullable
     @Override
@@ -42,6 +61,9 @@ public class MainFragment extends Fragment
     {
         super.onViewCreated(view, savedInstanceState);
 
+        viewCreatedNanos = System.nanoTime();
+        firstPixelRecorded = false;
+
         Drawable pictureBackground = getResources().getDrawable(R.drawable.pick_picture_bg);
 
         titleContainerView = view.findViewById(R.id.title_container_view);
@@ -49,142 +71,302 @@ public class MainFragment extends Fragment
         imageView = (ImageView) view.findViewById(R.id.image_view);
         imageView.setBackground(pictureBackground);
 
+        tiledImageView = (TiledImageView) view.findViewById(R.id.tiled_image_view);
+        tiledImageView.setOnOpenFailedListener(new TiledImageView.OnOpenFailedListener()
+        {
+            @Override
+            public void onOpenFailed(@NonNull final TiledImageView view, @Nullable final Bitmap preview)
+            {
+                //Without tiles, the regular decode is all there is to show
+                view.recycle();
+                view.setVisibility(View.GONE);
+                imageView.setImageBitmap(preview);
+            }
+        });
+
         titleView = (TextView) view.findViewById(R.id.title_text_view);
         subTitleView = (TextView) view.findViewById(R.id.sub_title_text_view);
 
+        item = resolveItem();
+
+        if (item == null || item.getPath() == null)
+        {
+            //Not loaded yet, the adapter recreates this page once it is
+            return;
+        }
+
+        PaletteColors cachedColors = PaletteCache.getInstance(getActivity()).getFromMemory(item.getPath(), item.getDateModified());
+
+        if (cachedColors != null)
+        {
+            applyPaletteColors(cachedColors);
+        }
+
         imageView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener()
         {
             @Override
             public boolean onPreDraw()
             {
                 imageView.getViewTreeObserver().removeOnPreDrawListener(this);
+                PipelineMetrics.getInstance().record(PipelineMetrics.STAGE_PAGE, System.nanoTime() - createdNanos);
 
-                new DecodeBitmapTask().execute();
+                decodeExecutor = ImageExecutor.getInstance().forPriority(getDecodePriority());
+                decodeTask = new DecodeBitmapTask();
+                decodeTask.executeOnExecutor(decodeExecutor);
 
                 return true;
             }
         });
     }
 
-    private Palette getPalette(@NonNull final Bitmap bitmap)
+    /**
+     * The host of the fragment gives the rows the pages show.
+     */
+    public interface GalleryHost
     {
-        Palette.Builder builder = new Palette.Builder(bitmap);
-        return builder.generate();
+        @Nullable
+        GalleryDataSource getGalleryDataSource();
     }
 
-    private class DecodeBitmapTask extends AsyncTask<Void, Void, Bitmap>
+    @Override
+    public boolean isBound()
     {
-        @Override
-        protected Bitmap doInBackground(final Void... params)
+        return item != null;
+    }
+
+    /**
+     * Called by the pager as the page becomes the current one or stops being it, so a decode
+     * still queued moves ahead of, or behind, the other pages.
+     */
+    @Override
+    public void setUserVisibleHint(final boolean isVisibleToUser)
+    {
+        super.setUserVisibleHint(isVisibleToUser);
+
+        if (decodeExecutor != null)
         {
-            Bitmap bitmap = null;
+            decodeExecutor.setPriority(getDecodePriority());
+        }
+    }
 
-            try
-            {
-                Context context = getActivity();
+    @Override
+    public void onDestroyView()
+    {
+        if (decodeTask != null)
+        {
+            decodeTask.cancel(true);
+            decodeTask = null;
+        }
 
-                Uri uri = Uri.parse(getArguments().getString(MediaStore.Images.Media.DATA));
-                bitmap = BitmapFactory.decodeFile(uri.getPath());
-                bitmap = BitmapUtils.resizeDownBySideLength(bitmap, Math.max(imageView.getWidth(), imageView.getHeight()), true);
+        //Dropped from the queue rather than left to be skipped when its turn comes
+        if (decodeExecutor != null)
+        {
+            decodeExecutor.cancel();
+            decodeExecutor = null;
+        }
 
-                ExifInterface ei = new ExifInterface(uri.getPath());
-                int orientation = ei.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        super.onDestroyView();
+    }
 
-                Matrix matrix = new Matrix();
+    private int getDecodePriority()
+    {
+        return getUserVisibleHint() ? ImageExecutor.PRIORITY_VISIBLE : ImageExecutor.PRIORITY_OFFSCREEN;
+    }
 
-                switch (orientation)
-                {
-                    case ExifInterface.ORIENTATION_UNDEFINED:
+    private void applyPaletteColors(@NonNull final PaletteColors colors)
+    {
+        PaletteColors.Swatch swatch = colors.getTitleSwatch();
 
-                        //Unknown orientation reported, so we check if ContentResolver says different (SAMSUNG BUG, I'm looking at you!)
+        if (swatch != null)
+        {
+            titleContainerView.setBackgroundColor(swatch.getRgb());
+            titleView.setTextColor(swatch.getTitleTextColor());
+            subTitleView.setTextColor(swatch.getBodyTextColor());
+        }
+    }
 
-                        String[] orientationColumn = {MediaStore.Images.Media.ORIENTATION};
-                        Cursor cur = context.getContentResolver().query(uri, orientationColumn, null, null, null);
+    /**
+     * Show the image with the tiled view if it is large enough, with bitmap as its preview.
+     */
+    private boolean showTiled(@Nullable final Bitmap bitmap)
+    {
+        if (bitmap == null || !TiledImageView.shouldTile(item.getWidth(), item.getHeight(), item.getMimeType()))
+        {
+            return false;
+        }
 
-                        if (cur != null && cur.moveToFirst())
-                        {
-                            int mediaOrientation = cur.getInt(cur.getColumnIndex(orientationColumn[0]));
-                            matrix.setRotate(mediaOrientation);
-                            cur.close();
-                        }
-                        break;
+        Integer orientation = OrientationResolver.getCachedOrientation(item.getPath(), item.getDateModified());
 
-                    case ExifInterface.ORIENTATION_NORMAL:
+        if (orientation == null)
+        {
+            return false;
+        }
 
-                        break;
+        tiledImageView.setVisibility(View.VISIBLE);
+        tiledImageView.setImage(item.getPath(), item.getDateModified(), item.getMimeType(), orientation, item.getWidth(), item.getHeight(), bitmap);
+        return true;
+    }
 
-                    case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
-                        matrix.setScale(-1, 1);
-                        break;
+    private void recordFirstPixel()
+    {
+        if (!firstPixelRecorded)
+        {
+            firstPixelRecorded = true;
+            PipelineMetrics.getInstance().record(PipelineMetrics.STAGE_FIRST_PIXEL, System.nanoTime() - viewCreatedNanos);
+        }
+    }
+
+    /**
+     * The row of this page, looked up by its id around its position, or null if the host has
+     * not loaded it.
+     */
+    @Nullable
+    private GalleryItem resolveItem()
+    {
+        GalleryDataSource dataSource = getActivity() instanceof GalleryHost ? ((GalleryHost) getActivity()).getGalleryDataSource() : null;
+        int position = getArguments().getInt(GalleryPagerAdapter.ARG_POSITION);
+
+        if (dataSource == null || position >= dataSource.getCount())
+        {
+            return null;
+        }
+
+        GalleryIndex window = dataSource.getWindow(position);
+        int itemPosition = window.indexOfId(getArguments().getLong(GalleryPagerAdapter.ARG_ID), position);
+
+        return itemPosition != -1 ? window.getItem(itemPosition) : null;
+    }
 
-                    case ExifInterface.ORIENTATION_ROTATE_180:
-                        matrix.setRotate(180);
-                        break;
+    private class DecodeBitmapTask extends AsyncTask<Void, DecodeResult, DecodeResult>
+    {
+        private boolean thumbnailShown;
 
-                    case ExifInterface.ORIENTATION_FLIP_VERTICAL:
-                        matrix.setRotate(180);
-                        matrix.postScale(-1, 1);
-                        break;
+        @Override
+        protected DecodeResult doInBackground(final Void... params)
+        {
+            Context context = getActivity();
 
-                    case ExifInterface.ORIENTATION_TRANSPOSE:
-                        matrix.setRotate(90);
-                        matrix.postScale(-1, 1);
-                        break;
+            if (isCancelled() || context == null)
+            {
+                return null;
+            }
+
+            ImageLoader imageLoader = ImageLoader.getInstance(context);
+            String path = item.getPath();
+            long dateModified = item.getDateModified();
+            int width = imageView.getWidth();
+            int height = imageView.getHeight();
 
-                    case ExifInterface.ORIENTATION_ROTATE_90:
-                        matrix.setRotate(90);
-                        break;
+            Bitmap bitmap = imageLoader.getCachedBitmap(path, dateModified, width, height);
 
-                    case ExifInterface.ORIENTATION_TRANSVERSE:
-                        matrix.setRotate(-90);
-                        matrix.postScale(-1, 1);
-                        break;
+            if (bitmap == null)
+            {
+                //Colors already indexed are shown right away
+                PaletteColors indexedColors = imageLoader.getCachedPaletteColors(path, dateModified);
 
-                    case ExifInterface.ORIENTATION_ROTATE_270:
-                        matrix.setRotate(-90);
-                        break;
+                if (indexedColors != null && !isCancelled())
+                {
+                    publishProgress(new DecodeResult(null, indexedColors));
+                }
+
+                //Show a thumbnail, and the palette from it, while the full image is decoded. Only the
+                //palette of the full image is cached, the thumbnail one is a preview
+                Bitmap thumbnail = imageLoader.loadThumbnail(path, dateModified, item.getId());
+
+                if (thumbnail != null && !isCancelled())
+                {
+                    publishProgress(new DecodeResult(thumbnail, indexedColors == null ? imageLoader.extractPaletteColors(thumbnail) : null));
                 }
 
-                if (!matrix.isIdentity())
+                if (isCancelled())
                 {
-                    bitmap = BitmapUtils.transformBitmap(bitmap, matrix, true);
+                    return null;
                 }
 
+                bitmap = imageLoader.loadBitmap(path, dateModified, width, height);
+            }
 
-            } catch (Exception e)
+            if (isCancelled())
             {
-                e.printStackTrace();
+                return null;
             }
 
-            return bitmap;
+            return new DecodeResult(bitmap, imageLoader.loadPaletteColors(path, dateModified, bitmap));
         }
 
         @Override
-        protected void onPostExecute(final Bitmap bitmap)
+        protected void onProgressUpdate(final DecodeResult... values)
         {
-            super.onPostExecute(bitmap);
+            super.onProgressUpdate(values);
 
-            imageView.setImageBitmap(bitmap);
+            DecodeResult preview = values[0];
 
-            Palette palette = getPalette(bitmap);
+            if (preview.getPaletteColors() != null)
+            {
+                applyPaletteColors(preview.getPaletteColors());
+            }
 
-            Palette.Swatch swatch = palette.getDarkVibrantSwatch();
+            if (preview.getBitmap() != null)
+            {
+                imageView.setImageBitmap(preview.getBitmap());
+                thumbnailShown = true;
+                recordFirstPixel();
+            }
+        }
 
-            if (swatch == null)
+        @Override
+        protected void onPostExecute(final DecodeResult result)
+        {
+            super.onPostExecute(result);
+
+            //The page was detached before the decode started
+            if (result == null)
             {
-                swatch = palette.getDarkMutedSwatch();
+                return;
             }
 
-            if (swatch != null)
+            PipelineMetrics metrics = PipelineMetrics.getInstance();
+            long start = metrics.begin(PipelineMetrics.STAGE_BIND);
+
+            try
             {
-                titleContainerView.setBackgroundColor(swatch.getRgb());
-                titleView.setTextColor(swatch.getTitleTextColor());
-                subTitleView.setTextColor(swatch.getBodyTextColor());
+                Bitmap bitmap = result.getBitmap();
+
+                if (showTiled(bitmap))
+                {
+                    imageView.setImageDrawable(null);
+                } else if (thumbnailShown && bitmap != null)
+                {
+                    crossFade(bitmap);
+                } else
+                {
+                    imageView.setImageBitmap(bitmap);
+                }
+
+                if (bitmap != null)
+                {
+                    recordFirstPixel();
+                }
+
+                if (result.getPaletteColors() != null)
+                {
+                    applyPaletteColors(result.getPaletteColors());
+                }
+
+                titleView.setText(item.getDisplayName());
+                subTitleView.setText(String.format("From %s\nSize: %d Kb", item.getBucketDisplayName(), item.getSize() / 1024));
+            } finally
+            {
+                metrics.end(PipelineMetrics.STAGE_BIND, start);
             }
+        }
 
-            Bundle arguments = getArguments();
-            titleView.setText(arguments.getString(MediaStore.Images.Media.DISPLAY_NAME));
-            subTitleView.setText(String.format("From %s\nSize: %d Kb", arguments.getString(MediaStore.Images.Media.BUCKET_DISPLAY_NAME), Integer.valueOf(arguments.getString(MediaStore.Images.Media.SIZE)) / 1024));
+        private void crossFade(@NonNull final Bitmap bitmap)
+        {
+            TransitionDrawable transition = new TransitionDrawable(new Drawable[]{imageView.getDrawable(), new BitmapDrawable(getResources(), bitmap)});
+            transition.setCrossFadeEnabled(true);
+            imageView.setImageDrawable(transition);
+            transition.startTransition(CROSS_FADE_MILLIS);
         }
     }
 }
@@ -0,0 +1,279 @@
+package com.tinchoapps.palettetest.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import com.tinchoapps.palettetest.utils.BitmapPool;
+import com.tinchoapps.palettetest.utils.BitmapUtils;
+import com.tinchoapps.palettetest.utils.DecodeConfigPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Two tier cache for the bitmaps shown by the pager: a memory LRU bounded by bytes and a disk
+ * tier under the app cache dir. Cached bitmaps are final, already resized and rotated, and must
+ * never be recycled by their users.
+ */
+public final class BitmapCache
+{
+    private static final String TAG = "BitmapCache";
+    private static final String DISK_CACHE_DIR = "bitmaps";
+    private static final long DISK_CACHE_MAX_BYTES = 32 * 1024 * 1024;
+    private static final int DISK_CACHE_JPEG_QUALITY = 90;
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    private static BitmapCache instance;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final File diskCacheDir;
+    private final ExecutorService diskWriter = Executors.newSingleThreadExecutor();
+    private final AtomicInteger diskHitCount = new AtomicInteger();
+    private final DecodeConfigPolicy decodeConfigPolicy;
+
+    public static synchronized BitmapCache getInstance(@NonNull Context context)
+    {
+        if (instance == null)
+        {
+            instance = new BitmapCache(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
+    private BitmapCache(@NonNull Context context)
+    {
+        int maxBytes = (int) (MemoryGovernor.getMemoryBudget() / MEMORY_CACHE_FRACTION);
+
+        memoryCache = new LruCache<String, Bitmap>(maxBytes)
+        {
+            @Override
+            protected int sizeOf(final String key, final Bitmap value)
+            {
+                //Reused bitmaps may hold more memory than their pixels need
+                return (int) BitmapPool.getByteCount(value);
+            }
+        };
+
+        diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        decodeConfigPolicy = DecodeConfigPolicy.forDevice(context);
+    }
+
+    /**
+     * The key for a bitmap of the image at path (MediaStore.Images.Media.DATA), resized to
+     * size and with the given EXIF orientation applied.
+     */
+    public static String createKey(@NonNull String path, long lastModified, int size, int orientation)
+    {
+        return path + '|' + lastModified + '|' + size + '|' + orientation;
+    }
+
+    @Nullable
+    public Bitmap getFromMemory(@NonNull String key)
+    {
+        return memoryCache.get(key);
+    }
+
+    /**
+     * Look the key up in memory and then on disk, promoting disk hits to memory.
+     * Must not be called from the UI thread.
+     */
+    @Nullable
+    public Bitmap get(@NonNull String key)
+    {
+        Bitmap bitmap = memoryCache.get(key);
+
+        if (bitmap == null)
+        {
+            bitmap = getFromDisk(key);
+
+            if (bitmap != null)
+            {
+                diskHitCount.incrementAndGet();
+                memoryCache.put(key, bitmap);
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Lookups answered from memory or disk.
+     */
+    public int getHitCount()
+    {
+        return memoryCache.hitCount() + diskHitCount.get();
+    }
+
+    public int getMissCount()
+    {
+        return memoryCache.missCount() - diskHitCount.get();
+    }
+
+    /**
+     * Add the bitmap to memory and schedule the write to the disk tier.
+     */
+    public void put(@NonNull final String key, @NonNull final Bitmap bitmap)
+    {
+        memoryCache.put(key, bitmap);
+
+        diskWriter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                putToDisk(key, bitmap);
+            }
+        });
+    }
+
+    public void evictMemory()
+    {
+        memoryCache.evictAll();
+    }
+
+    /**
+     * Evict the least recently used bitmaps from memory until at most maxBytes are held.
+     */
+    public void trimMemory(int maxBytes)
+    {
+        memoryCache.trimToSize(maxBytes);
+    }
+
+    public int getMemorySize()
+    {
+        return memoryCache.size();
+    }
+
+    public int getMaxMemorySize()
+    {
+        return memoryCache.maxSize();
+    }
+
+    @Nullable
+    private Bitmap getFromDisk(@NonNull String key)
+    {
+        File file = getDiskFile(key);
+
+        if (!file.exists())
+        {
+            return null;
+        }
+
+        //Stored as JPEG or PNG depending on alpha, the bounds tell which
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        options.inJustDecodeBounds = false;
+        decodeConfigPolicy.apply(options);
+
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+
+        if (bitmap != null)
+        {
+            //Keeps the disk tier in LRU order
+            file.setLastModified(System.currentTimeMillis());
+        }
+
+        return bitmap;
+    }
+
+    private void putToDisk(@NonNull String key, @NonNull Bitmap bitmap)
+    {
+        if (!diskCacheDir.exists() && !diskCacheDir.mkdirs())
+        {
+            Log.w(TAG, "Unable to create disk cache dir.");
+            return;
+        }
+
+        Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+
+        if (BitmapUtils.saveToFile(bitmap, getDiskFile(key).getPath(), format, DISK_CACHE_JPEG_QUALITY, false) == null)
+        {
+            Log.w(TAG, "Error writing bitmap to disk cache.");
+            return;
+        }
+
+        trimDiskCache();
+    }
+
+    private void trimDiskCache()
+    {
+        File[] files = diskCacheDir.listFiles();
+
+        if (files == null)
+        {
+            return;
+        }
+
+        long totalBytes = 0;
+
+        for (File file : files)
+        {
+            totalBytes += file.length();
+        }
+
+        if (totalBytes <= DISK_CACHE_MAX_BYTES)
+        {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(final File lhs, final File rhs)
+            {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < files.length && totalBytes > DISK_CACHE_MAX_BYTES; i++)
+        {
+            long length = files[i].length();
+
+            if (files[i].delete())
+            {
+                totalBytes -= length;
+            }
+        }
+    }
+
+    private File getDiskFile(@NonNull String key)
+    {
+        return new File(diskCacheDir, hashKey(key));
+    }
+
+    private static String hashKey(@NonNull String key)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+
+            for (byte b : hash)
+            {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e)
+        {
+            return String.valueOf(key.hashCode());
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.tinchoapps.palettetest.image;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import com.tinchoapps.palettetest.utils.ColorUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Search of the images whose swatch colors are closest to a color, over the palettes stored by
+ * the {@link PaletteIndexService}. Swatches are converted to L*a*b* and bucketed in a uniform
+ * grid; a query scans the cells in growing shells around the color until no unvisited cell can
+ * hold anything closer than the matches found.
+ * <p/>
+ * Immutable, build a new one to see newly indexed images.
+ */
+public final class ColorIndex
+{
+    private static final float CELL_SIZE = 10f;
+    private static final float MIN_L = 0f;
+    private static final float MIN_AB = -128f;
+    private static final int CELLS_L = 11;
+    private static final int CELLS_AB = 26;
+    private static final int CELL_COUNT = CELLS_L * CELLS_AB * CELLS_AB;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    //Points of each cell are contiguous, from cellStarts[cell] to cellStarts[cell + 1]
+    private final int[] cellStarts;
+    private final long[] imageIds;
+    private final String[] paths;
+    private final float[] labs;
+
+    public static final class Match
+    {
+        private final long imageId;
+        private final String path;
+        private final float distance;
+
+        Match(long imageId, String path, float distance)
+        {
+            this.imageId = imageId;
+            this.path = path;
+            this.distance = distance;
+        }
+
+        /**
+         * The MediaStore _ID of the image.
+         */
+        public long getImageId()
+        {
+            return imageId;
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        /**
+         * Distance in L*a*b* between the query and the closest swatch of the image.
+         */
+        public float getDistance()
+        {
+            return distance;
+        }
+    }
+
+    private ColorIndex(int[] cellStarts, long[] imageIds, String[] paths, float[] labs)
+    {
+        this.cellStarts = cellStarts;
+        this.imageIds = imageIds;
+        this.paths = paths;
+        this.labs = labs;
+    }
+
+    /**
+     * Build the index from rows of image id, path and then any number of nullable swatch colors.
+     */
+    @NonNull
+    static ColorIndex build(@NonNull Cursor cursor)
+    {
+        int colorColumns = cursor.getColumnCount() - 2;
+        int count = 0;
+        long[] ids = new long[INITIAL_CAPACITY];
+        String[] rowPaths = new String[INITIAL_CAPACITY];
+        float[] rowLabs = new float[INITIAL_CAPACITY * 3];
+        int[] cells = new int[INITIAL_CAPACITY];
+        float[] lab = new float[3];
+
+        while (cursor.moveToNext())
+        {
+            for (int column = 2; column < 2 + colorColumns; column++)
+            {
+                if (cursor.isNull(column))
+                {
+                    continue;
+                }
+
+                if (count == ids.length)
+                {
+                    ids = Arrays.copyOf(ids, count * 2);
+                    rowPaths = Arrays.copyOf(rowPaths, count * 2);
+                    rowLabs = Arrays.copyOf(rowLabs, count * 6);
+                    cells = Arrays.copyOf(cells, count * 2);
+                }
+
+                ColorUtils.rgbToLab(cursor.getInt(column), lab);
+                ids[count] = cursor.getLong(0);
+                rowPaths[count] = cursor.getString(1);
+                System.arraycopy(lab, 0, rowLabs, count * 3, 3);
+                cells[count] = getCell(lab);
+                count++;
+            }
+        }
+
+        //Counting sort of the points by cell
+        int[] cellStarts = new int[CELL_COUNT + 1];
+
+        for (int i = 0; i < count; i++)
+        {
+            cellStarts[cells[i] + 1]++;
+        }
+
+        for (int cell = 0; cell < CELL_COUNT; cell++)
+        {
+            cellStarts[cell + 1] += cellStarts[cell];
+        }
+
+        int[] next = Arrays.copyOf(cellStarts, CELL_COUNT);
+        long[] imageIds = new long[count];
+        String[] paths = new String[count];
+        float[] labs = new float[count * 3];
+
+        for (int i = 0; i < count; i++)
+        {
+            int target = next[cells[i]]++;
+            imageIds[target] = ids[i];
+            paths[target] = rowPaths[i];
+            System.arraycopy(rowLabs, i * 3, labs, target * 3, 3);
+        }
+
+        return new ColorIndex(cellStarts, imageIds, paths, labs);
+    }
+
+    /**
+     * Number of swatches in the index.
+     */
+    public int size()
+    {
+        return imageIds.length;
+    }
+
+    /**
+     * The count images with a swatch closest to rgb, closest first.
+     */
+    @NonNull
+    public List<Match> findClosest(int rgb, int count)
+    {
+        if (count <= 0 || imageIds.length == 0)
+        {
+            return Collections.emptyList();
+        }
+
+        float[] query = new float[3];
+        ColorUtils.rgbToLab(rgb, query);
+
+        int queryL = getCellCoordinate(query[0], MIN_L, CELLS_L);
+        int queryA = getCellCoordinate(query[1], MIN_AB, CELLS_AB);
+        int queryB = getCellCoordinate(query[2], MIN_AB, CELLS_AB);
+
+        int[] best = new int[count];
+        float[] bestDistances = new float[count];
+        int found = 0;
+
+        for (int radius = 0; radius < CELLS_AB; radius++)
+        {
+            for (int l = Math.max(0, queryL - radius); l <= Math.min(CELLS_L - 1, queryL + radius); l++)
+            {
+                for (int a = Math.max(0, queryA - radius); a <= Math.min(CELLS_AB - 1, queryA + radius); a++)
+                {
+                    for (int b = Math.max(0, queryB - radius); b <= Math.min(CELLS_AB - 1, queryB + radius); b++)
+                    {
+                        //Only the cells of this shell, the inner ones were visited before
+                        if (Math.max(Math.abs(l - queryL), Math.max(Math.abs(a - queryA), Math.abs(b - queryB))) != radius)
+                        {
+                            continue;
+                        }
+
+                        int cell = (l * CELLS_AB + a) * CELLS_AB + b;
+
+                        for (int point = cellStarts[cell]; point < cellStarts[cell + 1]; point++)
+                        {
+                            found = offer(point, getSquaredDistance(point, query), best, bestDistances, found);
+                        }
+                    }
+                }
+            }
+
+            //Anything outside the shells visited is at least radius cells away
+            float bound = radius * CELL_SIZE;
+
+            if (found == count && bestDistances[indexOfWorst(bestDistances, found)] <= bound * bound)
+            {
+                break;
+            }
+        }
+
+        List<Match> matches = new ArrayList<>(found);
+
+        for (int i = 0; i < found; i++)
+        {
+            matches.add(new Match(imageIds[best[i]], paths[best[i]], (float) Math.sqrt(bestDistances[i])));
+        }
+
+        Collections.sort(matches, new Comparator<Match>()
+        {
+            @Override
+            public int compare(final Match lhs, final Match rhs)
+            {
+                return Float.compare(lhs.distance, rhs.distance);
+            }
+        });
+
+        return matches;
+    }
+
+    // Add point to the best ones if it is closer than the worst of them, keeping one per image.
+    private int offer(int point, float distance, int[] best, float[] bestDistances, int found)
+    {
+        for (int i = 0; i < found; i++)
+        {
+            if (imageIds[best[i]] == imageIds[point])
+            {
+                if (distance < bestDistances[i])
+                {
+                    best[i] = point;
+                    bestDistances[i] = distance;
+                }
+
+                return found;
+            }
+        }
+
+        if (found < best.length)
+        {
+            best[found] = point;
+            bestDistances[found] = distance;
+            return found + 1;
+        }
+
+        int worst = indexOfWorst(bestDistances, found);
+
+        if (distance < bestDistances[worst])
+        {
+            best[worst] = point;
+            bestDistances[worst] = distance;
+        }
+
+        return found;
+    }
+
+    private float getSquaredDistance(int point, float[] query)
+    {
+        float dl = labs[point * 3] - query[0];
+        float da = labs[point * 3 + 1] - query[1];
+        float db = labs[point * 3 + 2] - query[2];
+        return dl * dl + da * da + db * db;
+    }
+
+    private static int indexOfWorst(float[] distances, int count)
+    {
+        int worst = 0;
+
+        for (int i = 1; i < count; i++)
+        {
+            if (distances[i] > distances[worst])
+            {
+                worst = i;
+            }
+        }
+
+        return worst;
+    }
+
+    private static int getCell(float[] lab)
+    {
+        return (getCellCoordinate(lab[0], MIN_L, CELLS_L) * CELLS_AB + getCellCoordinate(lab[1], MIN_AB, CELLS_AB)) * CELLS_AB
+                + getCellCoordinate(lab[2], MIN_AB, CELLS_AB);
+    }
+
+    private static int getCellCoordinate(float value, float min, int cells)
+    {
+        return Math.max(0, Math.min(cells - 1, (int) ((value - min) / CELL_SIZE)));
+    }
+}
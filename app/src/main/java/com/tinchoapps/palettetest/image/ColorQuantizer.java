@@ -0,0 +1,19 @@
+package com.tinchoapps.palettetest.image;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.v7.graphics.Palette;
+
+import java.util.List;
+
+/**
+ * Reduces the colors of a bitmap to the swatches a {@link Palette} is built from.
+ */
+public interface ColorQuantizer
+{
+    /**
+     * @return at most maxColorCount swatches, with the number of pixels each one stands for
+     */
+    @NonNull
+    List<Palette.Swatch> quantize(@NonNull Bitmap bitmap, int maxColorCount);
+}
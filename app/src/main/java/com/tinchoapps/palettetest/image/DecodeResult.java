@@ -0,0 +1,33 @@
+package com.tinchoapps.palettetest.image;
+
+import android.graphics.Bitmap;
+import android.support.annotation.Nullable;
+
+/**
+ * What the background pipeline delivers for a page: the bitmap to show and its palette colors.
+ */
+public final class DecodeResult
+{
+    @Nullable
+    private final Bitmap bitmap;
+    @Nullable
+    private final PaletteColors paletteColors;
+
+    public DecodeResult(@Nullable Bitmap bitmap, @Nullable PaletteColors paletteColors)
+    {
+        this.bitmap = bitmap;
+        this.paletteColors = paletteColors;
+    }
+
+    @Nullable
+    public Bitmap getBitmap()
+    {
+        return bitmap;
+    }
+
+    @Nullable
+    public PaletteColors getPaletteColors()
+    {
+        return paletteColors;
+    }
+}
@@ -0,0 +1,275 @@
+package com.tinchoapps.palettetest.image;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor dedicated to the image pipeline, so page decodes run in parallel and don't queue
+ * behind unrelated AsyncTasks. Work is ordered by priority (lower values run first) and in
+ * submission order within the same priority. Queued work can be moved to another priority, when
+ * a page becomes visible, or cancelled.
+ * <p/>
+ * Use {@link #forPriority(int)} to get an {@link Executor} for AsyncTask.executeOnExecutor.
+ * Cancelling the AsyncTask is enough to drop its queued work.
+ */
+public final class ImageExecutor
+{
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_OFFSCREEN = 10;
+    public static final int PRIORITY_PREFETCH = 20;
+
+    private static ImageExecutor instance;
+
+    private final Scheduler scheduler;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Decides when and where the pipeline work runs. Replace it with a direct or manually
+     * stepped implementation to run the pipeline deterministically.
+     */
+    public interface Scheduler
+    {
+        void schedule(@NonNull Task task);
+
+        /**
+         * Move task to priority, if it is still queued.
+         */
+        void reschedule(@NonNull Task task, int priority);
+
+        /**
+         * Drop task if it is still queued.
+         */
+        void remove(@NonNull Task task);
+    }
+
+    public static synchronized ImageExecutor getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new ImageExecutor(new ThreadPoolScheduler(Runtime.getRuntime().availableProcessors()));
+        }
+
+        return instance;
+    }
+
+    /**
+     * Make executor the one {@link #getInstance} returns, for tests. Null goes back to the
+     * default one.
+     */
+    public static synchronized void setInstanceForTesting(@Nullable ImageExecutor executor)
+    {
+        instance = executor;
+    }
+
+    public ImageExecutor(@NonNull Scheduler scheduler)
+    {
+        this.scheduler = scheduler;
+    }
+
+    @NonNull
+    public Task execute(@NonNull Runnable runnable, int priority)
+    {
+        Task task = new Task(runnable, priority, sequence.getAndIncrement());
+        scheduler.schedule(task);
+        return task;
+    }
+
+    /**
+     * Move task to priority if it hasn't started yet.
+     */
+    public void setPriority(@NonNull Task task, int priority)
+    {
+        if (task.getPriority() != priority)
+        {
+            scheduler.reschedule(task, priority);
+        }
+    }
+
+    /**
+     * Make sure task doesn't start, dropping it from the queue.
+     */
+    public void cancel(@NonNull Task task)
+    {
+        task.cancelled = true;
+        scheduler.remove(task);
+    }
+
+    /**
+     * An executor that runs its work at priority. The priority of what it runs can be changed
+     * later with {@link PriorityExecutor#setPriority}.
+     */
+    @NonNull
+    public PriorityExecutor forPriority(int priority)
+    {
+        return new PriorityExecutor(priority);
+    }
+
+    /**
+     * Executor of a single client, such as a page, that remembers its last task so it can be
+     * moved or cancelled.
+     */
+    public final class PriorityExecutor implements Executor
+    {
+        private int priority;
+        private Task task;
+
+        private PriorityExecutor(int priority)
+        {
+            this.priority = priority;
+        }
+
+        @Override
+        public void execute(@NonNull final Runnable command)
+        {
+            task = ImageExecutor.this.execute(command, priority);
+        }
+
+        /**
+         * Run the work not started yet, and the work to come, at priority.
+         */
+        public void setPriority(int priority)
+        {
+            this.priority = priority;
+
+            if (task != null)
+            {
+                ImageExecutor.this.setPriority(task, priority);
+            }
+        }
+
+        public void cancel()
+        {
+            if (task != null)
+            {
+                ImageExecutor.this.cancel(task);
+                task = null;
+            }
+        }
+    }
+
+    /**
+     * A unit of pipeline work, ordered by priority and then by submission.
+     */
+    public static final class Task implements Runnable, Comparable<Task>
+    {
+        private final Runnable runnable;
+        private final long sequence;
+        private volatile int priority;
+        private volatile boolean cancelled;
+
+        Task(Runnable runnable, int priority, long sequence)
+        {
+            this.runnable = runnable;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public int getPriority()
+        {
+            return priority;
+        }
+
+        /**
+         * Change the priority. Only for schedulers, and never while the task is in an ordered
+         * queue.
+         */
+        public void setPriority(int priority)
+        {
+            this.priority = priority;
+        }
+
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        @Override
+        public void run()
+        {
+            if (!cancelled)
+            {
+                runnable.run();
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull final Task another)
+        {
+            if (priority != another.priority)
+            {
+                return priority < another.priority ? -1 : 1;
+            }
+
+            return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Default scheduler: a pool of background priority threads, as many as CPUs, fed from a
+     * priority queue.
+     */
+    public static final class ThreadPoolScheduler implements Scheduler
+    {
+        private static final long KEEP_ALIVE_SECONDS = 30;
+
+        private final ThreadPoolExecutor threadPool;
+
+        public ThreadPoolScheduler(int poolSize)
+        {
+            threadPool = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(), new PipelineThreadFactory());
+            threadPool.allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void schedule(@NonNull Task task)
+        {
+            threadPool.execute(task);
+        }
+
+        @Override
+        public void reschedule(@NonNull Task task, int priority)
+        {
+            //The queue is ordered on insertion, so the task goes out and back in with its new priority
+            if (threadPool.remove(task))
+            {
+                task.setPriority(priority);
+                threadPool.execute(task);
+            }
+        }
+
+        @Override
+        public void remove(@NonNull Task task)
+        {
+            threadPool.remove(task);
+        }
+    }
+
+    private static final class PipelineThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable)
+        {
+            return new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "ImagePipeline #" + count.incrementAndGet());
+        }
+    }
+}
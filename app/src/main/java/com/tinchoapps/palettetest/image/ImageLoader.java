@@ -0,0 +1,340 @@
+package com.tinchoapps.palettetest.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.provider.MediaStore;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.tinchoapps.palettetest.utils.BitmapPool;
+import com.tinchoapps.palettetest.utils.BitmapUtils;
+import com.tinchoapps.palettetest.utils.DecodeConfigPolicy;
+import com.tinchoapps.palettetest.utils.OrientationResolver;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The decode pipeline of a gallery page: bounds-first decode, resize, EXIF rotation and palette
+ * extraction, going through the {@link BitmapCache} and {@link PaletteCache}.
+ * One per process, shared by the pages and the prefetcher so both produce the same cache
+ * entries and reuse the buffers of the same {@link PaletteExtractor}. All methods must be called
+ * from a background thread.
+ */
+public final class ImageLoader
+{
+    private static final String TAG = "ImageLoader";
+
+    //Decoded pixels allowed per pixel of the target view, the remaining downscale is done by resizeDownBySideLength
+    private static final int DECODE_PIXEL_BUDGET_FACTOR = 2;
+    private static final int BITMAP_POOL_MEMORY_FRACTION = 16;
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+
+    private static ImageLoader instance;
+    private static BitmapPool bitmapPool;
+
+    private final Context context;
+    private final BitmapCache bitmapCache;
+    private final PaletteCache paletteCache;
+    private final PaletteExtractor paletteExtractor;
+    private final DecodeConfigPolicy decodeConfigPolicy;
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
+
+    public static synchronized ImageLoader getInstance(@NonNull Context context)
+    {
+        if (instance == null)
+        {
+            instance = new ImageLoader(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
+    private ImageLoader(@NonNull Context context)
+    {
+        this(context, new PaletteExtractor(PaletteExtractor.DEFAULT_MAX_AREA, getBitmapPool()));
+    }
+
+    /**
+     * A loader of its own extracting palettes with paletteExtractor, for tests.
+     */
+    ImageLoader(@NonNull Context context, @NonNull PaletteExtractor paletteExtractor)
+    {
+        this.context = context.getApplicationContext();
+        this.bitmapCache = BitmapCache.getInstance(context);
+        this.paletteCache = PaletteCache.getInstance(context);
+        this.paletteExtractor = paletteExtractor;
+        this.decodeConfigPolicy = DecodeConfigPolicy.forDevice(context);
+    }
+
+    /**
+     * The pool shared by every stage of the pipeline for its intermediate bitmaps. Bitmaps
+     * handed out as results are never put back in it.
+     */
+    public static synchronized BitmapPool getBitmapPool()
+    {
+        if (bitmapPool == null)
+        {
+            bitmapPool = new BitmapPool(MemoryGovernor.getMemoryBudget() / BITMAP_POOL_MEMORY_FRACTION);
+        }
+
+        return bitmapPool;
+    }
+
+    @NonNull
+    public DecodeResult load(@NonNull String path, long dateModified, int width, int height)
+    {
+        Bitmap bitmap = loadBitmap(path, dateModified, width, height);
+        return new DecodeResult(bitmap, loadPaletteColors(path, dateModified, bitmap));
+    }
+
+    /**
+     * The bitmap of the image at path, resized to fit a view of width x height and rotated
+     * according to its EXIF orientation.
+     */
+    @Nullable
+    public Bitmap loadBitmap(@NonNull String path, long dateModified, int width, int height)
+    {
+        int maxSideLength = Math.max(width, height);
+        int maxNumOfPixels = width * height * DECODE_PIXEL_BUDGET_FACTOR;
+
+        //With the orientation memoized a cache hit doesn't even open the file
+        Integer cachedOrientation = OrientationResolver.getCachedOrientation(path, dateModified);
+
+        if (cachedOrientation != null)
+        {
+            Bitmap bitmap = bitmapCache.get(BitmapCache.createKey(path, dateModified, maxSideLength, cachedOrientation));
+
+            if (bitmap != null)
+            {
+                return bitmap;
+            }
+        }
+
+        Bitmap bitmap = null;
+        InputStream in = null;
+
+        try
+        {
+            in = new BufferedInputStream(new FileInputStream(path), STREAM_BUFFER_SIZE);
+
+            int orientation = OrientationResolver.getOrientation(context, path, dateModified, in);
+            String cacheKey = BitmapCache.createKey(path, dateModified, maxSideLength, orientation);
+
+            if (cachedOrientation == null)
+            {
+                bitmap = bitmapCache.get(cacheKey);
+
+                if (bitmap != null)
+                {
+                    return bitmap;
+                }
+            }
+
+            BitmapPool pool = getBitmapPool();
+            long decodeStart = metrics.begin(PipelineMetrics.STAGE_DECODE);
+
+            try
+            {
+                bitmap = BitmapUtils.decodeSampledBitmap(in, maxSideLength, maxNumOfPixels, pool, decodeConfigPolicy);
+            } catch (IOException e)
+            {
+                //The stream could not be rewound, decode again from the file
+                bitmap = BitmapUtils.decodeSampledBitmap(path, maxSideLength, maxNumOfPixels, pool, decodeConfigPolicy);
+            } finally
+            {
+                metrics.end(PipelineMetrics.STAGE_DECODE, decodeStart);
+            }
+
+            if (bitmap == null)
+            {
+                //Not an image BitmapFactory can decode, or a truncated file
+                Log.w(TAG, "Unable to decode " + path);
+                return null;
+            }
+
+            addBytes(PipelineMetrics.STAGE_DECODE, bitmap);
+
+            Bitmap decoded = bitmap;
+            long resizeStart = metrics.begin(PipelineMetrics.STAGE_RESIZE);
+
+            try
+            {
+                bitmap = BitmapUtils.resizeDownAndTransform(bitmap, maxSideLength, OrientationResolver.getMatrix(orientation), true, pool);
+            } finally
+            {
+                metrics.end(PipelineMetrics.STAGE_RESIZE, resizeStart);
+            }
+
+            if (bitmap != decoded)
+            {
+                addBytes(PipelineMetrics.STAGE_RESIZE, bitmap);
+            }
+
+            bitmapCache.put(cacheKey, bitmap);
+
+        } catch (Exception e)
+        {
+            Log.w(TAG, "Unable to load bitmap of " + path, e);
+        } finally
+        {
+            try
+            {
+                if (in != null)
+                {
+                    in.close();
+                }
+            } catch (IOException ignored)
+            {
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * The bitmap loadBitmap would return if it is already cached, without decoding anything.
+     */
+    @Nullable
+    public Bitmap getCachedBitmap(@NonNull String path, long dateModified, int width, int height)
+    {
+        Integer orientation = OrientationResolver.getCachedOrientation(path, dateModified);
+
+        if (orientation == null)
+        {
+            return null;
+        }
+
+        return bitmapCache.get(BitmapCache.createKey(path, dateModified, Math.max(width, height), orientation));
+    }
+
+    /**
+     * A small version of the image to show while it is decoded: the thumbnail embedded in its
+     * EXIF or else its MediaStore mini thumbnail, rotated according to its EXIF orientation.
+     *
+     * @param imageId the MediaStore _ID of the image, 0 to skip the MediaStore thumbnail
+     */
+    @Nullable
+    public Bitmap loadThumbnail(@NonNull String path, long dateModified, long imageId)
+    {
+        long start = metrics.begin(PipelineMetrics.STAGE_THUMBNAIL);
+
+        try
+        {
+            Bitmap thumbnail = decodeExifThumbnail(path);
+
+            if (thumbnail == null && imageId > 0)
+            {
+                thumbnail = MediaStore.Images.Thumbnails.getThumbnail(context.getContentResolver(), imageId, MediaStore.Images.Thumbnails.MINI_KIND, null);
+            }
+
+            if (thumbnail == null)
+            {
+                return null;
+            }
+
+            //Neither thumbnail is stored rotated
+            thumbnail = BitmapUtils.transformBitmap(thumbnail, OrientationResolver.getMatrix(resolveOrientation(path, dateModified)), true);
+            addBytes(PipelineMetrics.STAGE_THUMBNAIL, thumbnail);
+            return thumbnail;
+        } catch (Exception e)
+        {
+            Log.w(TAG, "Unable to load thumbnail of " + path, e);
+            return null;
+        } finally
+        {
+            metrics.end(PipelineMetrics.STAGE_THUMBNAIL, start);
+        }
+    }
+
+    /**
+     * The palette colors of the image if they are already known, from the pager or the
+     * {@link PaletteIndexService}.
+     */
+    @Nullable
+    public PaletteColors getCachedPaletteColors(@NonNull String path, long dateModified)
+    {
+        return paletteCache.get(path, dateModified);
+    }
+
+    /**
+     * The cached palette colors of the image, extracted from bitmap on a miss.
+     */
+    @Nullable
+    public PaletteColors loadPaletteColors(@NonNull String path, long dateModified, @Nullable Bitmap bitmap)
+    {
+        PaletteColors paletteColors = paletteCache.get(path, dateModified);
+
+        if (paletteColors == null && bitmap != null)
+        {
+            paletteColors = extractPaletteColors(bitmap);
+            paletteCache.put(path, dateModified, paletteColors);
+        }
+
+        return paletteColors;
+    }
+
+    /**
+     * The palette colors of bitmap, without caching them. For previews such as thumbnails, whose
+     * colors are not those of the full image.
+     */
+    @NonNull
+    public PaletteColors extractPaletteColors(@NonNull Bitmap bitmap)
+    {
+        long start = metrics.begin(PipelineMetrics.STAGE_PALETTE);
+
+        try
+        {
+            return paletteExtractor.extract(bitmap);
+        } finally
+        {
+            metrics.end(PipelineMetrics.STAGE_PALETTE, start);
+        }
+    }
+
+    private void addBytes(int stage, @Nullable Bitmap bitmap)
+    {
+        if (bitmap != null)
+        {
+            metrics.addBytes(stage, BitmapPool.getByteCount(bitmap));
+        }
+    }
+
+    @Nullable
+    private static Bitmap decodeExifThumbnail(@NonNull String path) throws IOException
+    {
+        ExifInterface exif = new ExifInterface(path);
+
+        if (!exif.hasThumbnail())
+        {
+            return null;
+        }
+
+        byte[] data = exif.getThumbnail();
+        return data != null ? BitmapFactory.decodeByteArray(data, 0, data.length) : null;
+    }
+
+    private int resolveOrientation(@NonNull String path, long dateModified) throws IOException
+    {
+        Integer cachedOrientation = OrientationResolver.getCachedOrientation(path, dateModified);
+
+        if (cachedOrientation != null)
+        {
+            return cachedOrientation;
+        }
+
+        InputStream in = new BufferedInputStream(new FileInputStream(path), STREAM_BUFFER_SIZE);
+
+        try
+        {
+            return OrientationResolver.getOrientation(context, path, dateModified, in);
+        } finally
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.tinchoapps.palettetest.image;
+
+import android.support.annotation.NonNull;
+import com.tinchoapps.palettetest.utils.ColorUtils;
+
+import java.util.Arrays;
+
+/**
+ * The median cut of {@link MedianCutQuantizer} over a 15 bit color histogram, on an int[] of
+ * pixels and into int[] outputs. It has no Android dependency, so the benchmarks module builds it
+ * on a plain JVM.
+ * <p/>
+ * Calls are serialized since they share the buffers.
+ */
+public final class MedianCut
+{
+    private static final int WORD_WIDTH = 5;
+    private static final int WORD_MASK = (1 << WORD_WIDTH) - 1;
+    private static final int HISTOGRAM_SIZE = 1 << (WORD_WIDTH * 3);
+
+    private static final int COMPONENT_RED = 0;
+    private static final int COMPONENT_GREEN = 1;
+    private static final int COMPONENT_BLUE = 2;
+
+    private static final float BLACK_MAX_LIGHTNESS = 0.05f;
+    private static final float WHITE_MIN_LIGHTNESS = 0.95f;
+
+    private final int[] histogram = new int[HISTOGRAM_SIZE];
+    //The distinct colors of the histogram, each box is a range of it
+    private final int[] colors = new int[HISTOGRAM_SIZE];
+    private final float[] hsl = new float[3];
+    private int[] boxLowers = new int[0];
+    private int[] boxUppers = new int[0];
+    private int[] boxVolumes = new int[0];
+
+    /**
+     * Quantize the first pixelCount ARGB colors of pixels into at most maxColorCount colors.
+     *
+     * @param outColors      receives the opaque RGB colors, must have room for maxColorCount
+     * @param outPopulations receives how many pixels each color stands for
+     * @return the number of colors written
+     */
+    public synchronized int quantize(@NonNull int[] pixels, int pixelCount, int maxColorCount, @NonNull int[] outColors, @NonNull int[] outPopulations)
+    {
+        Arrays.fill(histogram, 0);
+
+        for (int i = 0; i < pixelCount; i++)
+        {
+            histogram[quantize(pixels[i])]++;
+        }
+
+        int colorCount = 0;
+
+        for (int color = 0; color < HISTOGRAM_SIZE; color++)
+        {
+            if (histogram[color] > 0 && !shouldIgnore(approximate(color)))
+            {
+                colors[colorCount++] = color;
+            }
+        }
+
+        if (colorCount <= maxColorCount)
+        {
+            for (int i = 0; i < colorCount; i++)
+            {
+                outColors[i] = approximate(colors[i]);
+                outPopulations[i] = histogram[colors[i]];
+            }
+
+            return colorCount;
+        }
+
+        ensureBoxCapacity(maxColorCount);
+        setBox(0, 0, colorCount - 1);
+        int boxCount = 1;
+
+        while (boxCount < maxColorCount)
+        {
+            int box = findLargestSplittableBox(boxCount);
+
+            if (box < 0)
+            {
+                break;
+            }
+
+            splitBox(box, boxCount++);
+        }
+
+        int swatchCount = 0;
+
+        for (int box = 0; box < boxCount; box++)
+        {
+            if (addAverage(boxLowers[box], boxUppers[box], outColors, outPopulations, swatchCount))
+            {
+                swatchCount++;
+            }
+        }
+
+        return swatchCount;
+    }
+
+    private void ensureBoxCapacity(int capacity)
+    {
+        if (boxLowers.length < capacity)
+        {
+            boxLowers = new int[capacity];
+            boxUppers = new int[capacity];
+            boxVolumes = new int[capacity];
+        }
+    }
+
+    // Make box the colors from lower to upper, inclusive.
+    private void setBox(int box, int lower, int upper)
+    {
+        boxLowers[box] = lower;
+        boxUppers[box] = upper;
+        boxVolumes[box] = (getRange(lower, upper, COMPONENT_RED) + 1) * (getRange(lower, upper, COMPONENT_GREEN) + 1)
+                * (getRange(lower, upper, COMPONENT_BLUE) + 1);
+    }
+
+    private int findLargestSplittableBox(int boxCount)
+    {
+        int largest = -1;
+
+        for (int box = 0; box < boxCount; box++)
+        {
+            if (boxUppers[box] > boxLowers[box] && (largest < 0 || boxVolumes[box] > boxVolumes[largest]))
+            {
+                largest = box;
+            }
+        }
+
+        return largest;
+    }
+
+    // Split box at the population median of its longest dimension, the upper half becomes newBox.
+    private void splitBox(int box, int newBox)
+    {
+        int lower = boxLowers[box];
+        int upper = boxUppers[box];
+        int dimension = getLongestDimension(lower, upper);
+
+        //Sort by the dimension by making it the most significant word and back
+        for (int i = lower; i <= upper; i++)
+        {
+            colors[i] = swapToMostSignificant(colors[i], dimension);
+        }
+
+        Arrays.sort(colors, lower, upper + 1);
+
+        for (int i = lower; i <= upper; i++)
+        {
+            colors[i] = swapToMostSignificant(colors[i], dimension);
+        }
+
+        int population = 0;
+
+        for (int i = lower; i <= upper; i++)
+        {
+            population += histogram[colors[i]];
+        }
+
+        int split = lower;
+        int count = 0;
+
+        for (int i = lower; i <= upper; i++)
+        {
+            count += histogram[colors[i]];
+
+            if (count >= population / 2)
+            {
+                split = i;
+                break;
+            }
+        }
+
+        split = Math.min(split, upper - 1);
+        setBox(box, lower, split);
+        setBox(newBox, split + 1, upper);
+    }
+
+    // Write the average color of the colors from lower to upper at index, unless it is ignored.
+    private boolean addAverage(int lower, int upper, @NonNull int[] outColors, @NonNull int[] outPopulations, int index)
+    {
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        int population = 0;
+
+        for (int i = lower; i <= upper; i++)
+        {
+            int color = colors[i];
+            int count = histogram[color];
+            population += count;
+            red += (long) count * getComponent(color, COMPONENT_RED);
+            green += (long) count * getComponent(color, COMPONENT_GREEN);
+            blue += (long) count * getComponent(color, COMPONENT_BLUE);
+        }
+
+        int rgb = rgb(expand((int) (red / population)), expand((int) (green / population)), expand((int) (blue / population)));
+
+        if (shouldIgnore(rgb))
+        {
+            return false;
+        }
+
+        outColors[index] = rgb;
+        outPopulations[index] = population;
+        return true;
+    }
+
+    private int getLongestDimension(int lower, int upper)
+    {
+        int red = getRange(lower, upper, COMPONENT_RED);
+        int green = getRange(lower, upper, COMPONENT_GREEN);
+        int blue = getRange(lower, upper, COMPONENT_BLUE);
+
+        if (red >= green && red >= blue)
+        {
+            return COMPONENT_RED;
+        }
+
+        return green >= blue ? COMPONENT_GREEN : COMPONENT_BLUE;
+    }
+
+    private int getRange(int lower, int upper, int component)
+    {
+        int min = WORD_MASK;
+        int max = 0;
+
+        for (int i = lower; i <= upper; i++)
+        {
+            int value = getComponent(colors[i], component);
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        return max - min;
+    }
+
+    private boolean shouldIgnore(int rgb)
+    {
+        ColorUtils.rgbToHsl(rgb, hsl);
+
+        boolean nearRedILine = hsl[0] >= 10f && hsl[0] <= 37f && hsl[1] <= 0.82f;
+        return hsl[2] <= BLACK_MAX_LIGHTNESS || hsl[2] >= WHITE_MIN_LIGHTNESS || nearRedILine;
+    }
+
+    private static int quantize(int argb)
+    {
+        //The top 5 bits of each 8 bit channel
+        return ((argb >> 9) & (WORD_MASK << (WORD_WIDTH * 2))) | ((argb >> 6) & (WORD_MASK << WORD_WIDTH)) | ((argb >> 3) & WORD_MASK);
+    }
+
+    private static int approximate(int color)
+    {
+        return rgb(expand(getComponent(color, COMPONENT_RED)), expand(getComponent(color, COMPONENT_GREEN)),
+                expand(getComponent(color, COMPONENT_BLUE)));
+    }
+
+    private static int rgb(int red, int green, int blue)
+    {
+        return 0xff000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    private static int getComponent(int color, int component)
+    {
+        return (color >> (WORD_WIDTH * (2 - component))) & WORD_MASK;
+    }
+
+    // Swap the component with red, so it sorts first. Applying it twice restores the color.
+    private static int swapToMostSignificant(int color, int component)
+    {
+        if (component == COMPONENT_RED)
+        {
+            return color;
+        }
+
+        int red = getComponent(color, COMPONENT_RED);
+        int other = getComponent(color, component);
+        int shift = WORD_WIDTH * (2 - component);
+
+        return (other << (WORD_WIDTH * 2)) | (color & ~(WORD_MASK << (WORD_WIDTH * 2)) & ~(WORD_MASK << shift)) | (red << shift);
+    }
+
+    private static int expand(int value)
+    {
+        return (value << 3) | (value >> 2);
+    }
+}
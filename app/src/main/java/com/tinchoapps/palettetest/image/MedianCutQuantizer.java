@@ -0,0 +1,67 @@
+package com.tinchoapps.palettetest.image;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.v7.graphics.Palette;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Median cut over a 15 bit color histogram, like the one in the support library but working on
+ * primitive arrays that are reused between calls: the pixels are read once with getPixels and
+ * nothing is allocated per pixel or per color, only the swatches returned.
+ * <p/>
+ * Colors near black, white or the red I line are left out, as Palette does. Calls are serialized
+ * since they share the buffers.
+ * <p/>
+ * The quantization itself is {@link MedianCut}, on an int[] of pixels; the bitmap and swatches
+ * are only its input and output.
+ */
+public final class MedianCutQuantizer implements ColorQuantizer
+{
+    private final MedianCut medianCut = new MedianCut();
+    private int[] pixels = new int[0];
+    private int[] swatchColors = new int[0];
+    private int[] swatchPopulations = new int[0];
+
+    @NonNull
+    @Override
+    public synchronized List<Palette.Swatch> quantize(@NonNull Bitmap bitmap, int maxColorCount)
+    {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int pixelCount = width * height;
+
+        if (pixels.length < pixelCount)
+        {
+            pixels = new int[pixelCount];
+        }
+
+        if (swatchColors.length < maxColorCount)
+        {
+            swatchColors = new int[maxColorCount];
+            swatchPopulations = new int[maxColorCount];
+        }
+
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        int swatchCount = quantize(pixels, pixelCount, maxColorCount, swatchColors, swatchPopulations);
+        List<Palette.Swatch> swatches = new ArrayList<>(swatchCount);
+
+        for (int i = 0; i < swatchCount; i++)
+        {
+            swatches.add(new Palette.Swatch(swatchColors[i], swatchPopulations[i]));
+        }
+
+        return swatches;
+    }
+
+    /**
+     * See {@link MedianCut#quantize}.
+     */
+    synchronized int quantize(@NonNull int[] pixels, int pixelCount, int maxColorCount, @NonNull int[] outColors, @NonNull int[] outPopulations)
+    {
+        return medianCut.quantize(pixels, pixelCount, maxColorCount, outColors, outPopulations);
+    }
+}
@@ -0,0 +1,167 @@
+package com.tinchoapps.palettetest.image;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import com.tinchoapps.palettetest.utils.BitmapPool;
+import com.tinchoapps.palettetest.utils.ByteBufferOutputStream;
+
+import java.io.PrintWriter;
+
+/**
+ * Keeps the bitmaps held by the {@link BitmapCache}, the {@link TileCache} and the pool of the
+ * {@link ImageLoader}, plus the pooled {@link ByteBufferOutputStream}s, within what the system can
+ * give the app. The caches are sized from the memory class of the device, and trimmed down to a
+ * watermark of their size on each trim level so the process is less likely to be killed in the
+ * background or run out of memory while paging.
+ * <p/>
+ * Registered with the application context, so it follows the whole process and not an activity.
+ * {@link #onTrimMemory} can be called directly to simulate a trim.
+ */
+public final class MemoryGovernor implements ComponentCallbacks2
+{
+    private static final String TAG = "MemoryGovernor";
+    private static final long BYTES_PER_MB = 1024 * 1024;
+
+    private static MemoryGovernor instance;
+    //Until the governor is created the caches are sized from the heap limit
+    private static long memoryBudget = Runtime.getRuntime().maxMemory();
+
+    private final BitmapCache bitmapCache;
+    private final TileCache tileCache;
+    private final BitmapPool bitmapPool;
+    private int lastTrimLevel;
+
+    public static synchronized MemoryGovernor getInstance(@NonNull Context context)
+    {
+        if (instance == null)
+        {
+            Context appContext = context.getApplicationContext();
+            int memoryClass = ((ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass();
+
+            //The heap may be larger than the memory class with largeHeap, the system expects the class
+            memoryBudget = Math.min(Runtime.getRuntime().maxMemory(), memoryClass * BYTES_PER_MB);
+            instance = new MemoryGovernor(appContext);
+            appContext.registerComponentCallbacks(instance);
+        }
+
+        return instance;
+    }
+
+    /**
+     * The bytes the image caches should share, from the memory class of the device once the
+     * governor is created. Sizes of caches are fractions of it.
+     */
+    public static synchronized long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    private MemoryGovernor(@NonNull Context context)
+    {
+        bitmapCache = BitmapCache.getInstance(context);
+        tileCache = TileCache.getInstance();
+        bitmapPool = ImageLoader.getBitmapPool();
+    }
+
+    @Override
+    public void onTrimMemory(final int level)
+    {
+        int cachePercent = getCachePercent(level);
+        int poolPercent = getPoolPercent(level);
+
+        bitmapCache.trimMemory(bitmapCache.getMaxMemorySize() * cachePercent / 100);
+        tileCache.trimToSize(level >= TRIM_MEMORY_UI_HIDDEN ? 0 : tileCache.getMaxSize() * cachePercent / 100);
+        bitmapPool.trimToSize(bitmapPool.getMaxBytes() * poolPercent / 100);
+
+        //Pooled encode buffers only save allocations as well
+        if (poolPercent < 100)
+        {
+            ByteBufferOutputStream.clearPool();
+        }
+
+        lastTrimLevel = level;
+
+        Log.i(TAG, "Trim level " + level + ", " + getHeldBytes() / 1024 + " KB held");
+    }
+
+    @Override
+    public void onLowMemory()
+    {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(final Configuration newConfig)
+    {
+    }
+
+    /**
+     * Bytes of every bitmap held by the caches and the pool. Pages only show bitmaps from the
+     * BitmapCache, or tiles, so they are included.
+     */
+    public long getHeldBytes()
+    {
+        return bitmapCache.getMemorySize() + tileCache.getSize() + bitmapPool.getRetainedBytes();
+    }
+
+    public void dump(@NonNull String prefix, @NonNull PrintWriter writer)
+    {
+        writer.print(prefix);
+        writer.println("Memory (KB held/max): budget " + getMemoryBudget() / 1024 + ", last trim level " + lastTrimLevel);
+        dumpUsage(prefix, writer, "bitmaps", bitmapCache.getMemorySize(), bitmapCache.getMaxMemorySize());
+        dumpUsage(prefix, writer, "tiles", tileCache.getSize(), tileCache.getMaxSize());
+        dumpUsage(prefix, writer, "pool", bitmapPool.getRetainedBytes(), bitmapPool.getMaxBytes());
+    }
+
+    /**
+     * Percentage of their maximum size the caches keep at a trim level.
+     */
+    static int getCachePercent(int level)
+    {
+        if (level >= TRIM_MEMORY_MODERATE)
+        {
+            return 0;
+        } else if (level >= TRIM_MEMORY_BACKGROUND)
+        {
+            return 25;
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN)
+        {
+            return 50;
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL)
+        {
+            return 25;
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW)
+        {
+            return 50;
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE)
+        {
+            return 75;
+        }
+
+        return 100;
+    }
+
+    /**
+     * Percentage of its maximum size the pool keeps at a trim level. Pooled bitmaps are only
+     * there to save allocations, so they go before anything shown.
+     */
+    static int getPoolPercent(int level)
+    {
+        if (level < TRIM_MEMORY_RUNNING_MODERATE)
+        {
+            return 100;
+        }
+
+        return level >= TRIM_MEMORY_RUNNING_CRITICAL ? 0 : getCachePercent(level) / 2;
+    }
+
+    private static void dumpUsage(@NonNull String prefix, @NonNull PrintWriter writer, @NonNull String name, long bytes, long maxBytes)
+    {
+        writer.print(prefix);
+        writer.println(String.format("  %-12s %d/%d", name, bytes / 1024, maxBytes / 1024));
+    }
+}
@@ -0,0 +1,308 @@
+package com.tinchoapps.palettetest.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.view.ViewPager;
+import android.util.SparseArray;
+
+/**
+ * Warms the {@link BitmapCache} and {@link PaletteCache} for the pages around the current one,
+ * so the fragments the ViewPager creates next find their bitmap already decoded.
+ * <p/>
+ * Pages within the ViewPager offscreen limit are left alone, the pager already creates and
+ * decodes those. Beyond it, aheadCount pages are prefetched in the swipe direction (twice as
+ * many on fast swipes) and behindCount pages in the other one, limited to what fits in
+ * memoryBudgetBytes. Jumping more than one page cancels all the pending prefetches.
+ */
+public final class PagePrefetcher implements ViewPager.OnPageChangeListener
+{
+    //Pages per second above which a swipe is considered a fling
+    private static final float FAST_SWIPE_VELOCITY = 3f;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final ViewPager viewPager;
+    private final PageSource pageSource;
+    private final ImageLoader imageLoader;
+    private final int aheadCount;
+    private final int behindCount;
+    private final long memoryBudgetBytes;
+    private final SparseArray<PrefetchTask> pendingTasks = new SparseArray<>();
+
+    private int lastPosition = -1;
+    private long lastSelectedTime;
+    private int direction = 1;
+    private float velocity;
+
+    /**
+     * Gives the image of each pager position.
+     */
+    public interface PageSource
+    {
+        int getCount();
+
+        /**
+         * The image at position, null if it is not known yet.
+         */
+        @Nullable
+        PageImage getImage(int position);
+    }
+
+    /**
+     * The file of a page and its modification date, which key its bitmap and palette.
+     */
+    public static final class PageImage
+    {
+        private final String path;
+        private final long dateModified;
+
+        public PageImage(@NonNull String path, long dateModified)
+        {
+            this.path = path;
+            this.dateModified = dateModified;
+        }
+    }
+
+    public PagePrefetcher(@NonNull Context context, @NonNull ViewPager viewPager, @NonNull PageSource pageSource, int aheadCount, int behindCount, long memoryBudgetBytes)
+    {
+        this.viewPager = viewPager;
+        this.pageSource = pageSource;
+        this.imageLoader = ImageLoader.getInstance(context);
+        this.aheadCount = aheadCount;
+        this.behindCount = behindCount;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    @Override
+    public void onPageScrolled(final int position, final float positionOffset, final int positionOffsetPixels)
+    {
+    }
+
+    @Override
+    public void onPageSelected(final int position)
+    {
+        long now = SystemClock.uptimeMillis();
+
+        if (lastPosition != -1 && position != lastPosition)
+        {
+            int delta = position - lastPosition;
+
+            if (Math.abs(delta) > 1)
+            {
+                cancelAll();
+            }
+
+            direction = delta > 0 ? 1 : -1;
+            velocity = Math.abs(delta) * 1000f / Math.max(1, now - lastSelectedTime);
+        }
+
+        lastPosition = position;
+        lastSelectedTime = now;
+
+        prefetchAround(position);
+    }
+
+    @Override
+    public void onPageScrollStateChanged(final int state)
+    {
+    }
+
+    /**
+     * Drop the pending prefetches and start over from the current page, to be called when the
+     * pages change.
+     */
+    public void refresh()
+    {
+        cancelAll();
+        update();
+    }
+
+    /**
+     * Prefetch around the current page again, keeping the pending prefetches whose position
+     * still shows the same image, to be called when some pages change.
+     */
+    public void update()
+    {
+        if (viewPager.getWidth() > 0)
+        {
+            prefetchAround(viewPager.getCurrentItem());
+        } else
+        {
+            viewPager.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    prefetchAround(viewPager.getCurrentItem());
+                }
+            });
+        }
+    }
+
+    /**
+     * Cancel the pending prefetch of the page at position, if any.
+     */
+    public void cancel(int position)
+    {
+        PrefetchTask task = pendingTasks.get(position);
+
+        if (task != null)
+        {
+            task.cancel();
+            pendingTasks.remove(position);
+        }
+    }
+
+    /**
+     * Cancel every pending prefetch.
+     */
+    public void cancelAll()
+    {
+        for (int i = 0; i < pendingTasks.size(); i++)
+        {
+            pendingTasks.valueAt(i).cancel();
+        }
+
+        pendingTasks.clear();
+    }
+
+    private void prefetchAround(int position)
+    {
+        int width = viewPager.getWidth();
+        int height = viewPager.getHeight();
+
+        if (width <= 0 || height <= 0)
+        {
+            return;
+        }
+
+        int maxPages = (int) Math.min(Integer.MAX_VALUE, memoryBudgetBytes / ((long) width * height * BYTES_PER_PIXEL));
+        int ahead = Math.min(velocity >= FAST_SWIPE_VELOCITY ? aheadCount * 2 : aheadCount, maxPages);
+        int behind = Math.max(0, Math.min(behindCount, maxPages - ahead));
+        int offscreenLimit = viewPager.getOffscreenPageLimit();
+
+        int firstAhead = position + direction * (offscreenLimit + 1);
+        int lastAhead = position + direction * (offscreenLimit + ahead);
+        int firstBehind = position - direction * (offscreenLimit + 1);
+        int lastBehind = position - direction * (offscreenLimit + behind);
+
+        for (int i = pendingTasks.size() - 1; i >= 0; i--)
+        {
+            int pendingPosition = pendingTasks.keyAt(i);
+            PrefetchTask task = pendingTasks.valueAt(i);
+
+            if (task.isDone())
+            {
+                pendingTasks.removeAt(i);
+            } else if (!(ahead > 0 && isBetween(pendingPosition, firstAhead, lastAhead)) && !(behind > 0 && isBetween(pendingPosition, firstBehind, lastBehind)))
+            {
+                task.cancel();
+                pendingTasks.removeAt(i);
+            }
+        }
+
+        for (int i = 0; i < ahead; i++)
+        {
+            prefetch(firstAhead + direction * i, i);
+        }
+
+        for (int i = 0; i < behind; i++)
+        {
+            prefetch(firstBehind - direction * i, ahead + i);
+        }
+    }
+
+    private static boolean isBetween(int position, int first, int last)
+    {
+        return position >= Math.min(first, last) && position <= Math.max(first, last);
+    }
+
+    private void prefetch(int position, int order)
+    {
+        if (position < 0 || position >= pageSource.getCount())
+        {
+            return;
+        }
+
+        PageImage image = pageSource.getImage(position);
+        PrefetchTask pending = pendingTasks.get(position);
+
+        if (pending != null)
+        {
+            if (image != null && pending.isFor(image))
+            {
+                return;
+            }
+
+            //The page changed since it was queued
+            pending.cancel();
+            pendingTasks.remove(position);
+        }
+
+        if (image == null)
+        {
+            return;
+        }
+
+        PrefetchTask task = new PrefetchTask(image.path, image.dateModified, viewPager.getWidth(), viewPager.getHeight());
+        pendingTasks.put(position, task);
+        ImageExecutor.getInstance().execute(task, ImageExecutor.PRIORITY_PREFETCH + order);
+    }
+
+    private final class PrefetchTask implements Runnable
+    {
+        private final String path;
+        private final long dateModified;
+        private final int width;
+        private final int height;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+
+        PrefetchTask(String path, long dateModified, int width, int height)
+        {
+            this.path = path;
+            this.dateModified = dateModified;
+            this.width = width;
+            this.height = height;
+        }
+
+        void cancel()
+        {
+            cancelled = true;
+        }
+
+        boolean isDone()
+        {
+            return done;
+        }
+
+        boolean isFor(@NonNull PageImage image)
+        {
+            return path.equals(image.path) && dateModified == image.dateModified;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                if (cancelled)
+                {
+                    return;
+                }
+
+                Bitmap bitmap = imageLoader.loadBitmap(path, dateModified, width, height);
+
+                if (!cancelled)
+                {
+                    imageLoader.loadPaletteColors(path, dateModified, bitmap);
+                }
+            } finally
+            {
+                done = true;
+            }
+        }
+    }
+}
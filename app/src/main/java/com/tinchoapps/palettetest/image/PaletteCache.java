@@ -0,0 +1,206 @@
+package com.tinchoapps.palettetest.image;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of the {@link PaletteColors} of each image, keyed by path plus modification time.
+ * Entries live in memory and are persisted in a {@link PaletteDatabase}, so the colors of
+ * an image are only computed once.
+ */
+public final class PaletteCache
+{
+    private static final String TAG = "PaletteCache";
+    private static final int MEMORY_CACHE_ENTRIES = 512;
+    private static final String STATE_INDEX_CHECKPOINT = "index_checkpoint";
+    private static final String STATE_MODIFIED_CHECKPOINT = "modified_checkpoint";
+    private static final String STATE_MODIFIED_CHECKPOINT_ID = "modified_checkpoint_id";
+
+    private static PaletteCache instance;
+
+    private final LruCache<String, PaletteColors> memoryCache = new LruCache<>(MEMORY_CACHE_ENTRIES);
+    private final PaletteDatabase database;
+    private final ExecutorService databaseWriter = Executors.newSingleThreadExecutor();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    public static synchronized PaletteCache getInstance(@NonNull Context context)
+    {
+        if (instance == null)
+        {
+            instance = new PaletteCache(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
+    private PaletteCache(@NonNull Context context)
+    {
+        database = new PaletteDatabase(context);
+    }
+
+    private static String createKey(@NonNull String path, long modified)
+    {
+        return path + '|' + modified;
+    }
+
+    /**
+     * Memory only lookup, safe to call from the UI thread. Does not count as a hit or a miss.
+     */
+    @Nullable
+    public PaletteColors getFromMemory(@NonNull String path, long modified)
+    {
+        return memoryCache.get(createKey(path, modified));
+    }
+
+    /**
+     * Look the colors up in memory and then in the database. Must not be called from the UI
+     * thread.
+     */
+    @Nullable
+    public PaletteColors get(@NonNull String path, long modified)
+    {
+        PaletteColors colors = find(path, modified);
+
+        if (colors != null)
+        {
+            hitCount.incrementAndGet();
+        } else
+        {
+            missCount.incrementAndGet();
+        }
+
+        return colors;
+    }
+
+    /**
+     * Like {@link #get}, but not counted as a hit or a miss, for lookups that aren't a page
+     * asking for its colors.
+     */
+    @Nullable
+    public PaletteColors find(@NonNull String path, long modified)
+    {
+        String key = createKey(path, modified);
+        PaletteColors colors = memoryCache.get(key);
+
+        if (colors == null)
+        {
+            try
+            {
+                colors = database.query(path, modified);
+            } catch (RuntimeException e)
+            {
+                Log.w(TAG, "Error reading palette.", e);
+            }
+
+            if (colors != null)
+            {
+                memoryCache.put(key, colors);
+            }
+        }
+
+        return colors;
+    }
+
+    /**
+     * Add the colors to memory and schedule the database write. The MediaStore _ID stored by the
+     * indexer for path, if any, is kept.
+     */
+    public void put(@NonNull final String path, final long modified, @NonNull final PaletteColors colors)
+    {
+        memoryCache.put(createKey(path, modified), colors);
+
+        databaseWriter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    database.upsert(path, modified, colors);
+                } catch (RuntimeException e)
+                {
+                    Log.w(TAG, "Error writing palette.", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Store the colors of the MediaStore image imageId right away, from the indexer thread.
+     */
+    public void putIndexed(@NonNull String path, long modified, long imageId, @NonNull PaletteColors colors)
+    {
+        memoryCache.put(createKey(path, modified), colors);
+        database.insert(path, modified, imageId, colors);
+    }
+
+    /**
+     * The MediaStore _ID up to which every image has been indexed, 0 if indexing never ran.
+     */
+    public long getIndexCheckpoint()
+    {
+        return database.getState(STATE_INDEX_CHECKPOINT, 0);
+    }
+
+    public void setIndexCheckpoint(long imageId)
+    {
+        database.putState(STATE_INDEX_CHECKPOINT, imageId);
+    }
+
+    /**
+     * The DATE_MODIFIED, and _ID among the images with that date, up to which images modified
+     * after being indexed have been indexed again. 0 if that never ran.
+     */
+    public long getModifiedCheckpoint()
+    {
+        return database.getState(STATE_MODIFIED_CHECKPOINT, 0);
+    }
+
+    public long getModifiedCheckpointId()
+    {
+        return database.getState(STATE_MODIFIED_CHECKPOINT_ID, 0);
+    }
+
+    public void setModifiedCheckpoint(long dateModified, long imageId)
+    {
+        database.putState(STATE_MODIFIED_CHECKPOINT, dateModified);
+        database.putState(STATE_MODIFIED_CHECKPOINT_ID, imageId);
+    }
+
+    /**
+     * A color search index over the swatches of every indexed image. Must not be called from the
+     * UI thread.
+     */
+    @NonNull
+    public ColorIndex createColorIndex()
+    {
+        Cursor cursor = database.queryIndexedSwatches();
+
+        try
+        {
+            return ColorIndex.build(cursor);
+        } finally
+        {
+            cursor.close();
+        }
+    }
+
+    public int getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    public int getMissCount()
+    {
+        return missCount.get();
+    }
+}
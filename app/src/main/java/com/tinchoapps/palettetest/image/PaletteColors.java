@@ -0,0 +1,89 @@
+package com.tinchoapps.palettetest.image;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.graphics.Palette;
+
+/**
+ * The colors the pager uses from a {@link Palette}, detached from the bitmap so they can be
+ * cached and persisted.
+ */
+public final class PaletteColors
+{
+    @Nullable
+    private final Swatch darkVibrant;
+    @Nullable
+    private final Swatch darkMuted;
+
+    public PaletteColors(@Nullable Swatch darkVibrant, @Nullable Swatch darkMuted)
+    {
+        this.darkVibrant = darkVibrant;
+        this.darkMuted = darkMuted;
+    }
+
+    public static PaletteColors fromPalette(@NonNull Palette palette)
+    {
+        return new PaletteColors(Swatch.fromPaletteSwatch(palette.getDarkVibrantSwatch()), Swatch.fromPaletteSwatch(palette.getDarkMutedSwatch()));
+    }
+
+    @Nullable
+    public Swatch getDarkVibrant()
+    {
+        return darkVibrant;
+    }
+
+    @Nullable
+    public Swatch getDarkMuted()
+    {
+        return darkMuted;
+    }
+
+    /**
+     * The swatch used for the title bar: dark vibrant, falling back to dark muted.
+     */
+    @Nullable
+    public Swatch getTitleSwatch()
+    {
+        return darkVibrant != null ? darkVibrant : darkMuted;
+    }
+
+    public static final class Swatch
+    {
+        private final int rgb;
+        private final int titleTextColor;
+        private final int bodyTextColor;
+
+        public Swatch(int rgb, int titleTextColor, int bodyTextColor)
+        {
+            this.rgb = rgb;
+            this.titleTextColor = titleTextColor;
+            this.bodyTextColor = bodyTextColor;
+        }
+
+        @Nullable
+        static Swatch fromPaletteSwatch(@Nullable Palette.Swatch swatch)
+        {
+            if (swatch == null)
+            {
+                return null;
+            }
+
+            return new Swatch(swatch.getRgb(), swatch.getTitleTextColor(), swatch.getBodyTextColor());
+        }
+
+        public int getRgb()
+        {
+            return rgb;
+        }
+
+        public int getTitleTextColor()
+        {
+            return titleTextColor;
+        }
+
+        public int getBodyTextColor()
+        {
+            return bodyTextColor;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.tinchoapps.palettetest.image;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * SQLite store of the {@link PaletteColors} computed per image, keyed by path and modification
+ * time, plus the progress of the {@link PaletteIndexService}.
+ */
+final class PaletteDatabase extends SQLiteOpenHelper
+{
+    private static final String DATABASE_NAME = "palettes.db";
+    private static final int DATABASE_VERSION = 2;
+
+    static final String TABLE_PALETTES = "palettes";
+    static final String COLUMN_PATH = "path";
+    static final String COLUMN_MODIFIED = "modified";
+    static final String COLUMN_IMAGE_ID = "image_id";
+    static final String COLUMN_DARK_VIBRANT_RGB = "dark_vibrant_rgb";
+    static final String COLUMN_DARK_VIBRANT_TITLE = "dark_vibrant_title";
+    static final String COLUMN_DARK_VIBRANT_BODY = "dark_vibrant_body";
+    static final String COLUMN_DARK_MUTED_RGB = "dark_muted_rgb";
+    static final String COLUMN_DARK_MUTED_TITLE = "dark_muted_title";
+    static final String COLUMN_DARK_MUTED_BODY = "dark_muted_body";
+
+    static final String TABLE_INDEX_STATE = "index_state";
+    static final String COLUMN_KEY = "key";
+    static final String COLUMN_VALUE = "value";
+
+    private static final String[] PALETTE_COLUMNS = {
+            COLUMN_DARK_VIBRANT_RGB, COLUMN_DARK_VIBRANT_TITLE, COLUMN_DARK_VIBRANT_BODY,
+            COLUMN_DARK_MUTED_RGB, COLUMN_DARK_MUTED_TITLE, COLUMN_DARK_MUTED_BODY
+    };
+
+    PaletteDatabase(@NonNull Context context)
+    {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(final SQLiteDatabase db)
+    {
+        db.execSQL("CREATE TABLE " + TABLE_PALETTES + " ("
+                + COLUMN_PATH + " TEXT PRIMARY KEY, "
+                + COLUMN_MODIFIED + " INTEGER NOT NULL, "
+                + COLUMN_IMAGE_ID + " INTEGER, "
+                + COLUMN_DARK_VIBRANT_RGB + " INTEGER, "
+                + COLUMN_DARK_VIBRANT_TITLE + " INTEGER, "
+                + COLUMN_DARK_VIBRANT_BODY + " INTEGER, "
+                + COLUMN_DARK_MUTED_RGB + " INTEGER, "
+                + COLUMN_DARK_MUTED_TITLE + " INTEGER, "
+                + COLUMN_DARK_MUTED_BODY + " INTEGER)");
+        db.execSQL("CREATE TABLE " + TABLE_INDEX_STATE + " ("
+                + COLUMN_KEY + " TEXT PRIMARY KEY, "
+                + COLUMN_VALUE + " INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion)
+    {
+        //Only a cache, recompute everything
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PALETTES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_INDEX_STATE);
+        onCreate(db);
+    }
+
+    /**
+     * @return the stored colors, or null if there are none or they are for a different
+     * modification time
+     */
+    @Nullable
+    PaletteColors query(@NonNull String path, long modified)
+    {
+        Cursor cursor = getReadableDatabase().query(TABLE_PALETTES, PALETTE_COLUMNS, COLUMN_PATH + " = ? AND " + COLUMN_MODIFIED + " = ?",
+                new String[]{path, String.valueOf(modified)}, null, null, null);
+
+        try
+        {
+            if (!cursor.moveToFirst())
+            {
+                return null;
+            }
+
+            return new PaletteColors(readSwatch(cursor, 0), readSwatch(cursor, 3));
+        } finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The MediaStore _ID, path and swatch colors of every row written by the indexer.
+     */
+    @NonNull
+    Cursor queryIndexedSwatches()
+    {
+        return getReadableDatabase().query(TABLE_PALETTES, new String[]{COLUMN_IMAGE_ID, COLUMN_PATH, COLUMN_DARK_VIBRANT_RGB, COLUMN_DARK_MUTED_RGB},
+                COLUMN_IMAGE_ID + " IS NOT NULL", null, null, null, null);
+    }
+
+    /**
+     * Store the colors of the MediaStore image imageId, replacing any row of path.
+     */
+    void insert(@NonNull String path, long modified, long imageId, @NonNull PaletteColors colors)
+    {
+        ContentValues values = createValues(path, modified, colors);
+        values.put(COLUMN_IMAGE_ID, imageId);
+
+        getWritableDatabase().insertWithOnConflict(TABLE_PALETTES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Store the colors of an image whose MediaStore _ID isn't known, keeping the _ID of the row of
+     * path if the indexer already wrote one.
+     */
+    void upsert(@NonNull String path, long modified, @NonNull PaletteColors colors)
+    {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = createValues(path, modified, colors);
+
+        db.beginTransaction();
+
+        try
+        {
+            if (db.update(TABLE_PALETTES, values, COLUMN_PATH + " = ?", new String[]{path}) == 0)
+            {
+                db.insertWithOnConflict(TABLE_PALETTES, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+
+            db.setTransactionSuccessful();
+        } finally
+        {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return the value stored for key, or defaultValue if there is none
+     */
+    long getState(@NonNull String key, long defaultValue)
+    {
+        Cursor cursor = getReadableDatabase().query(TABLE_INDEX_STATE, new String[]{COLUMN_VALUE}, COLUMN_KEY + " = ?",
+                new String[]{key}, null, null, null);
+
+        try
+        {
+            return cursor.moveToFirst() ? cursor.getLong(0) : defaultValue;
+        } finally
+        {
+            cursor.close();
+        }
+    }
+
+    void putState(@NonNull String key, long value)
+    {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_KEY, key);
+        values.put(COLUMN_VALUE, value);
+
+        getWritableDatabase().insertWithOnConflict(TABLE_INDEX_STATE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    @NonNull
+    private static ContentValues createValues(@NonNull String path, long modified, @NonNull PaletteColors colors)
+    {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PATH, path);
+        values.put(COLUMN_MODIFIED, modified);
+        putSwatch(values, colors.getDarkVibrant(), COLUMN_DARK_VIBRANT_RGB, COLUMN_DARK_VIBRANT_TITLE, COLUMN_DARK_VIBRANT_BODY);
+        putSwatch(values, colors.getDarkMuted(), COLUMN_DARK_MUTED_RGB, COLUMN_DARK_MUTED_TITLE, COLUMN_DARK_MUTED_BODY);
+        return values;
+    }
+
+    @Nullable
+    private static PaletteColors.Swatch readSwatch(@NonNull Cursor cursor, int firstColumn)
+    {
+        if (cursor.isNull(firstColumn))
+        {
+            return null;
+        }
+
+        return new PaletteColors.Swatch(cursor.getInt(firstColumn), cursor.getInt(firstColumn + 1), cursor.getInt(firstColumn + 2));
+    }
+
+    private static void putSwatch(@NonNull ContentValues values, @Nullable PaletteColors.Swatch swatch, String rgbColumn, String titleColumn, String bodyColumn)
+    {
+        if (swatch == null)
+        {
+            values.putNull(rgbColumn);
+            values.putNull(titleColumn);
+            values.putNull(bodyColumn);
+        } else
+        {
+            values.put(rgbColumn, swatch.getRgb());
+            values.put(titleColumn, swatch.getTitleTextColor());
+            values.put(bodyColumn, swatch.getBodyTextColor());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.tinchoapps.palettetest.image;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.graphics.Palette;
+import com.tinchoapps.palettetest.utils.BitmapPool;
+import com.tinchoapps.palettetest.utils.BitmapUtils;
+
+/**
+ * Computes {@link PaletteColors} off the UI thread. The palette is generated from a downscaled
+ * copy of the bitmap of at most maxArea pixels, the source bitmap is left untouched. The colors
+ * come from a {@link ColorQuantizer}, a {@link MedianCutQuantizer} by default.
+ */
+public final class PaletteExtractor
+{
+    public static final int DEFAULT_MAX_AREA = 112 * 112;
+    public static final int DEFAULT_MAX_COLOR_COUNT = 16;
+
+    private final int maxArea;
+    private final int maxColorCount;
+    @NonNull
+    private final ColorQuantizer quantizer;
+    @Nullable
+    private final BitmapPool pool;
+
+    public PaletteExtractor()
+    {
+        this(DEFAULT_MAX_AREA, null);
+    }
+
+    /**
+     * @param pool where the downscaled copy is taken from and returned to, may be null
+     */
+    public PaletteExtractor(int maxArea, @Nullable BitmapPool pool)
+    {
+        this(maxArea, DEFAULT_MAX_COLOR_COUNT, new MedianCutQuantizer(), pool);
+    }
+
+    /**
+     * @param maxColorCount the most swatches the quantizer may produce
+     * @param pool          where the downscaled copy is taken from and returned to, may be null
+     */
+    public PaletteExtractor(int maxArea, int maxColorCount, @NonNull ColorQuantizer quantizer, @Nullable BitmapPool pool)
+    {
+        this.maxArea = maxArea;
+        this.maxColorCount = maxColorCount;
+        this.quantizer = quantizer;
+        this.pool = pool;
+    }
+
+    @NonNull
+    public PaletteColors extract(@NonNull Bitmap bitmap)
+    {
+        Bitmap scaled = BitmapUtils.resizeDownByArea(bitmap, maxArea, false, pool);
+
+        try
+        {
+            //Palette only picks the dark vibrant and dark muted swatches out of the quantized ones
+            Palette palette = Palette.from(quantizer.quantize(scaled, maxColorCount));
+
+            return PaletteColors.fromPalette(palette);
+        } finally
+        {
+            if (scaled != bitmap)
+            {
+                if (pool != null)
+                {
+                    pool.put(scaled);
+                } else
+                {
+                    scaled.recycle();
+                }
+            }
+        }
+    }
+}
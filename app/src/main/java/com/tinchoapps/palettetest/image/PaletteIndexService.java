@@ -0,0 +1,293 @@
+package com.tinchoapps.palettetest.image;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.tinchoapps.palettetest.utils.BitmapUtils;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Computes the {@link PaletteColors} of every image in MediaStore in the background, so pages
+ * show their colors without decoding. Images are walked by _ID in batches and decoded tiny,
+ * and the last indexed _ID is stored after every batch so a new start resumes from there.
+ * Then the images modified since they were indexed are walked by DATE_MODIFIED the same way.
+ * <p/>
+ * Runs at the lowest thread priority, pauses while the CPU is busy and stops when the battery is
+ * low or in power save mode; it goes on from its checkpoint the next time it is started.
+ */
+public class PaletteIndexService extends IntentService
+{
+    private static final String TAG = "PaletteIndexService";
+    private static final int BATCH_SIZE = 50;
+    //Enough pixels for PaletteExtractor, which downscales to DEFAULT_MAX_AREA anyway
+    private static final int DECODE_MAX_SIDE = 256;
+    private static final int DECODE_MAX_PIXELS = PaletteExtractor.DEFAULT_MAX_AREA * 4;
+    private static final int MIN_BATTERY_PERCENT = 30;
+    private static final float MAX_LOAD_PER_CPU = 1f;
+    private static final long IMAGE_PAUSE_MILLIS = 50;
+    private static final long BUSY_PAUSE_MILLIS = 5000;
+    private static final int MAX_BUSY_PAUSES = 12;
+    private static final String LOADAVG_PATH = "/proc/loadavg";
+
+    private static final String[] PROJECTION = {
+            MediaStore.Images.Media._ID, MediaStore.Images.Media.DATA, MediaStore.Images.Media.DATE_MODIFIED
+    };
+
+    private int indexedCount;
+
+    public PaletteIndexService()
+    {
+        super(TAG);
+        setIntentRedelivery(true);
+    }
+
+    /**
+     * Start indexing, or go on from the checkpoint if it was interrupted. Images added or
+     * modified since the last run are indexed too.
+     */
+    public static void start(@NonNull Context context)
+    {
+        context.startService(new Intent(context, PaletteIndexService.class));
+    }
+
+    @Override
+    protected void onHandleIntent(final Intent intent)
+    {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+
+        PaletteCache paletteCache = PaletteCache.getInstance(this);
+        PaletteExtractor paletteExtractor = new PaletteExtractor();
+        indexedCount = 0;
+
+        if (runPass(paletteCache, paletteExtractor, false) && runPass(paletteCache, paletteExtractor, true))
+        {
+            Log.d(TAG, "Index complete, " + indexedCount + " images indexed in this run");
+        } else
+        {
+            Log.d(TAG, "Indexing paused, " + indexedCount + " images indexed in this run");
+        }
+    }
+
+    /**
+     * Index images in batches from the checkpoint of the pass: new images by _ID, or images
+     * modified after being indexed by DATE_MODIFIED.
+     *
+     * @return true if every image of the pass was walked, false if it stopped before
+     */
+    private boolean runPass(@NonNull PaletteCache paletteCache, @NonNull PaletteExtractor paletteExtractor, boolean modifiedPass)
+    {
+        while (canRun())
+        {
+            Cursor cursor = modifiedPass ? queryModifiedImages(paletteCache) : queryNewImages(paletteCache);
+
+            if (cursor == null)
+            {
+                return false;
+            }
+
+            long checkpointId = -1;
+            long checkpointModified = 0;
+
+            try
+            {
+                if (!cursor.moveToFirst())
+                {
+                    return true;
+                }
+
+                do
+                {
+                    if (!waitForIdleCpu())
+                    {
+                        return false;
+                    }
+
+                    long imageId = cursor.getLong(0);
+                    String path = cursor.getString(1);
+                    long dateModified = cursor.getLong(2);
+
+                    if (path != null && indexImage(paletteCache, paletteExtractor, path, dateModified, imageId))
+                    {
+                        indexedCount++;
+                    }
+
+                    checkpointId = imageId;
+                    checkpointModified = dateModified;
+                } while (cursor.moveToNext());
+            } catch (RuntimeException e)
+            {
+                Log.w(TAG, "Error indexing palettes.", e);
+                return false;
+            } finally
+            {
+                cursor.close();
+
+                if (checkpointId >= 0)
+                {
+                    if (modifiedPass)
+                    {
+                        paletteCache.setModifiedCheckpoint(checkpointModified, checkpointId);
+                    } else
+                    {
+                        paletteCache.setIndexCheckpoint(checkpointId);
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    @Nullable
+    private Cursor queryNewImages(@NonNull PaletteCache paletteCache)
+    {
+        return getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, PROJECTION,
+                MediaStore.Images.Media._ID + " > ?", new String[]{String.valueOf(paletteCache.getIndexCheckpoint())},
+                MediaStore.Images.Media._ID + " LIMIT " + BATCH_SIZE);
+    }
+
+    /**
+     * The images already walked by _ID that were modified after the modified checkpoint, ordered
+     * by DATE_MODIFIED and then _ID so batches don't skip images with the same date.
+     */
+    @Nullable
+    private Cursor queryModifiedImages(@NonNull PaletteCache paletteCache)
+    {
+        String modified = String.valueOf(paletteCache.getModifiedCheckpoint());
+
+        return getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, PROJECTION,
+                MediaStore.Images.Media._ID + " <= ? AND (" + MediaStore.Images.Media.DATE_MODIFIED + " > ? OR ("
+                        + MediaStore.Images.Media.DATE_MODIFIED + " = ? AND " + MediaStore.Images.Media._ID + " > ?))",
+                new String[]{String.valueOf(paletteCache.getIndexCheckpoint()), modified, modified,
+                        String.valueOf(paletteCache.getModifiedCheckpointId())},
+                MediaStore.Images.Media.DATE_MODIFIED + ", " + MediaStore.Images.Media._ID + " LIMIT " + BATCH_SIZE);
+    }
+
+    /**
+     * @return true if the colors of the image were stored, false if it couldn't be decoded
+     */
+    private static boolean indexImage(@NonNull PaletteCache paletteCache, @NonNull PaletteExtractor paletteExtractor, @NonNull String path,
+                                      long dateModified, long imageId)
+    {
+        //Already computed by the pager, or indexed before, only the _ID may be missing
+        PaletteColors colors = paletteCache.find(path, dateModified);
+
+        if (colors == null)
+        {
+            Bitmap bitmap = BitmapUtils.decodeSampledBitmap(path, DECODE_MAX_SIDE, DECODE_MAX_PIXELS);
+
+            if (bitmap == null)
+            {
+                return false;
+            }
+
+            colors = paletteExtractor.extract(bitmap);
+            bitmap.recycle();
+            //Only decodes need to leave the CPU to the foreground
+            SystemClock.sleep(IMAGE_PAUSE_MILLIS);
+        }
+
+        paletteCache.putIndexed(path, dateModified, imageId, colors);
+        return true;
+    }
+
+    /**
+     * False if the battery is low and not charging, or power save mode is on.
+     */
+    private boolean canRun()
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && ((PowerManager) getSystemService(Context.POWER_SERVICE)).isPowerSaveMode())
+        {
+            return false;
+        }
+
+        //Sticky broadcast, no receiver needed
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+
+        if (battery == null)
+        {
+            return true;
+        }
+
+        int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+
+        if (status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL || level < 0 || scale <= 0)
+        {
+            return true;
+        }
+
+        return level * 100 / scale >= MIN_BATTERY_PERCENT;
+    }
+
+    /**
+     * Wait while the load average is above MAX_LOAD_PER_CPU per CPU. False if the CPU stayed busy
+     * too long or the battery state doesn't allow running anymore.
+     */
+    private boolean waitForIdleCpu()
+    {
+        float maxLoad = MAX_LOAD_PER_CPU * Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < MAX_BUSY_PAUSES; i++)
+        {
+            if (readLoadAverage() <= maxLoad)
+            {
+                return true;
+            }
+
+            SystemClock.sleep(BUSY_PAUSE_MILLIS);
+
+            if (!canRun())
+            {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The one minute load average, 0 if it can't be read.
+     */
+    private static float readLoadAverage()
+    {
+        BufferedReader reader = null;
+
+        try
+        {
+            reader = new BufferedReader(new FileReader(LOADAVG_PATH));
+            String line = reader.readLine();
+            return line != null ? Float.parseFloat(line.split(" ", 2)[0]) : 0;
+        } catch (IOException | NumberFormatException e)
+        {
+            return 0;
+        } finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                } catch (IOException ignored)
+                {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.tinchoapps.palettetest.image;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Trace;
+import android.support.annotation.NonNull;
+import com.tinchoapps.palettetest.utils.BitmapPool;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Latency and allocation metrics of each stage of the image pipeline, plus the hit ratios of its
+ * caches. The last RING_SIZE latencies of every stage are kept in preallocated ring buffers, so
+ * recording never allocates.
+ * <p/>
+ * Stages measured with {@link #begin} and {@link #end} also show up as trace sections in systrace
+ * on API 18+. Everything can be printed with {@link #dump}, which the activity exposes through
+ * dumpsys.
+ */
+public final class PipelineMetrics
+{
+    /**
+     * From the page fragment being created to its first pre-draw, when its decode is scheduled.
+     */
+    public static final int STAGE_PAGE = 0;
+    public static final int STAGE_DECODE = 1;
+    /**
+     * The resize and rotation, done in a single pass.
+     */
+    public static final int STAGE_RESIZE = 2;
+    public static final int STAGE_THUMBNAIL = 3;
+    public static final int STAGE_PALETTE = 4;
+    /**
+     * Setting the result in the views of the page.
+     */
+    public static final int STAGE_BIND = 5;
+    /**
+     * From the page view being created to its first image, thumbnail or full, being shown.
+     */
+    public static final int STAGE_FIRST_PIXEL = 6;
+
+    private static final String[] STAGE_NAMES = {"page", "decode", "resize", "thumbnail", "palette", "bind", "first_pixel"};
+    private static final int STAGE_COUNT = STAGE_NAMES.length;
+    private static final int RING_SIZE = 256;
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private static PipelineMetrics instance;
+
+    private final long[][] latencies = new long[STAGE_COUNT][RING_SIZE];
+    private final long[] counts = new long[STAGE_COUNT];
+    private final long[] totalNanos = new long[STAGE_COUNT];
+    private final long[] maxNanos = new long[STAGE_COUNT];
+    private final long[] bytes = new long[STAGE_COUNT];
+
+    public static synchronized PipelineMetrics getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new PipelineMetrics();
+        }
+
+        return instance;
+    }
+
+    private PipelineMetrics()
+    {
+    }
+
+    /**
+     * Start measuring stage on this thread, to be followed by {@link #end} on the same thread.
+     *
+     * @return the start time to pass to end
+     */
+    public long begin(int stage)
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+        {
+            Trace.beginSection(STAGE_NAMES[stage]);
+        }
+
+        return System.nanoTime();
+    }
+
+    public void end(int stage, long beginNanos)
+    {
+        record(stage, System.nanoTime() - beginNanos);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+        {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Record a latency of stage measured by the caller, for stages that span threads or frames.
+     */
+    public synchronized void record(int stage, long nanos)
+    {
+        latencies[stage][(int) (counts[stage] % RING_SIZE)] = nanos;
+        counts[stage]++;
+        totalNanos[stage] += nanos;
+        maxNanos[stage] = Math.max(maxNanos[stage], nanos);
+    }
+
+    /**
+     * Count bytes allocated by stage, the size of the bitmaps it produced.
+     */
+    public synchronized void addBytes(int stage, long byteCount)
+    {
+        bytes[stage] += byteCount;
+    }
+
+    public synchronized long getCount(int stage)
+    {
+        return counts[stage];
+    }
+
+    public synchronized long getAverageNanos(int stage)
+    {
+        return counts[stage] == 0 ? 0 : totalNanos[stage] / counts[stage];
+    }
+
+    public synchronized long getMaxNanos(int stage)
+    {
+        return maxNanos[stage];
+    }
+
+    public synchronized long getBytes(int stage)
+    {
+        return bytes[stage];
+    }
+
+    /**
+     * The latency under which percentile (0..100) of the recent samples of stage are, 0 if there
+     * are none.
+     */
+    public long getPercentileNanos(int stage, int percentile)
+    {
+        long[] samples = getRecentSamples(stage);
+
+        if (samples.length == 0)
+        {
+            return 0;
+        }
+
+        Arrays.sort(samples);
+        return samples[Math.min(samples.length - 1, samples.length * percentile / 100)];
+    }
+
+    /**
+     * Print the latencies of every stage and the hit ratios of the caches.
+     */
+    public void dump(@NonNull Context context, @NonNull String prefix, @NonNull PrintWriter writer)
+    {
+        writer.print(prefix);
+        writer.println("Image pipeline (ms: count avg p50 p90 p99 max, KB allocated):");
+
+        for (int stage = 0; stage < STAGE_COUNT; stage++)
+        {
+            writer.print(prefix);
+            writer.println(String.format("  %-12s %6d %8.1f %8.1f %8.1f %8.1f %8.1f %10d", STAGE_NAMES[stage], getCount(stage),
+                    toMillis(getAverageNanos(stage)), toMillis(getPercentileNanos(stage, 50)), toMillis(getPercentileNanos(stage, 90)),
+                    toMillis(getPercentileNanos(stage, 99)), toMillis(getMaxNanos(stage)), getBytes(stage) / 1024));
+        }
+
+        BitmapCache bitmapCache = BitmapCache.getInstance(context);
+        PaletteCache paletteCache = PaletteCache.getInstance(context);
+        TileCache tileCache = TileCache.getInstance();
+        BitmapPool bitmapPool = ImageLoader.getBitmapPool();
+
+        writer.print(prefix);
+        writer.println("Caches (hits/misses, hit ratio):");
+        dumpHitRatio(prefix, writer, "bitmaps", bitmapCache.getHitCount(), bitmapCache.getMissCount());
+        dumpHitRatio(prefix, writer, "palettes", paletteCache.getHitCount(), paletteCache.getMissCount());
+        dumpHitRatio(prefix, writer, "tiles", tileCache.getHitCount(), tileCache.getMissCount());
+        dumpHitRatio(prefix, writer, "pool", bitmapPool.getHitCount(), bitmapPool.getMissCount());
+    }
+
+    private synchronized long[] getRecentSamples(int stage)
+    {
+        return Arrays.copyOf(latencies[stage], (int) Math.min(counts[stage], RING_SIZE));
+    }
+
+    private static void dumpHitRatio(@NonNull String prefix, @NonNull PrintWriter writer, @NonNull String name, int hits, int misses)
+    {
+        int requests = hits + misses;
+
+        writer.print(prefix);
+        writer.println(String.format("  %-12s %d/%d %.2f", name, hits, misses, requests == 0 ? 0f : (float) hits / requests));
+    }
+
+    private static double toMillis(long nanos)
+    {
+        return (double) nanos / NANOS_PER_MILLI;
+    }
+}
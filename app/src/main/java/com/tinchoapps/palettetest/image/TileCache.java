@@ -0,0 +1,96 @@
+package com.tinchoapps.palettetest.image;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import com.tinchoapps.palettetest.utils.BitmapPool;
+
+/**
+ * Memory LRU of the tiles decoded by {@link TiledImageView}, bounded by bytes and shared by every
+ * page so the memory used by tiled images doesn't depend on their resolution nor on how many
+ * are open. Tiles are never recycled, they may still be drawn after being evicted.
+ */
+public final class TileCache
+{
+    private static final int MEMORY_CACHE_FRACTION = 16;
+
+    private static TileCache instance;
+
+    private final LruCache<String, Bitmap> tiles;
+
+    public static synchronized TileCache getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new TileCache((int) (MemoryGovernor.getMemoryBudget() / MEMORY_CACHE_FRACTION));
+        }
+
+        return instance;
+    }
+
+    private TileCache(int maxBytes)
+    {
+        tiles = new LruCache<String, Bitmap>(maxBytes)
+        {
+            @Override
+            protected int sizeOf(final String key, final Bitmap value)
+            {
+                //Reused bitmaps may hold more memory than their pixels need
+                return (int) BitmapPool.getByteCount(value);
+            }
+        };
+    }
+
+    /**
+     * The key of the tile at column, row of the grid of the image at path decoded with sampleSize.
+     */
+    public static String createKey(@NonNull String path, long lastModified, int sampleSize, int column, int row)
+    {
+        return path + '|' + lastModified + '|' + sampleSize + '|' + column + '|' + row;
+    }
+
+    @Nullable
+    public Bitmap get(@NonNull String key)
+    {
+        return tiles.get(key);
+    }
+
+    public void put(@NonNull String key, @NonNull Bitmap tile)
+    {
+        tiles.put(key, tile);
+    }
+
+    public int getHitCount()
+    {
+        return tiles.hitCount();
+    }
+
+    public int getMissCount()
+    {
+        return tiles.missCount();
+    }
+
+    /**
+     * Evict the least recently used tiles until at most maxBytes are held.
+     */
+    public void trimToSize(int maxBytes)
+    {
+        tiles.trimToSize(maxBytes);
+    }
+
+    public int getSize()
+    {
+        return tiles.size();
+    }
+
+    public int getMaxSize()
+    {
+        return tiles.maxSize();
+    }
+
+    public void evictAll()
+    {
+        tiles.evictAll();
+    }
+}
@@ -0,0 +1,554 @@
+package com.tinchoapps.palettetest.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.view.ViewParent;
+import com.tinchoapps.palettetest.utils.BitmapUtils;
+import com.tinchoapps.palettetest.utils.DecodeConfigPolicy;
+import com.tinchoapps.palettetest.utils.OrientationResolver;
+import com.tinchoapps.palettetest.utils.Util;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Shows very large images center cropped, decoding with BitmapRegionDecoder only the tiles in
+ * view, at the sample size that matches the current zoom. Until its tiles are ready, an area is
+ * drawn from the preview bitmap, the regular decode of the page.
+ * <p/>
+ * Supports pinch to zoom, panning while zoomed and double tap to zoom out.
+ */
+public class TiledImageView extends View
+{
+    private static final String TAG = "TiledImageView";
+
+    //Images with more pixels than this are shown tiled
+    private static final long MIN_TILED_PIXELS = 8 * 1024 * 1024;
+    //Side of a decoded tile in pixels
+    private static final int TILE_SIZE = 512;
+    //View pixels per source pixel at the maximum zoom
+    private static final float MAX_SOURCE_SCALE = 2f;
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    //Source image coordinates to upright image coordinates
+    private final Matrix orientationMatrix = new Matrix();
+    //Upright image coordinates to view coordinates
+    private final Matrix displayMatrix = new Matrix();
+    private final Matrix imageMatrix = new Matrix();
+    private final Matrix inverseMatrix = new Matrix();
+    private final RectF visibleRect = new RectF();
+    private final Rect tileRect = new Rect();
+    private final Set<String> pendingTiles = new HashSet<>();
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+    private OnOpenFailedListener onOpenFailedListener;
+
+    private String path;
+    private long dateModified;
+    private Bitmap.Config tileConfig = Bitmap.Config.ARGB_8888;
+    private int orientation;
+    private Bitmap preview;
+    private BitmapRegionDecoder decoder;
+    private int sourceWidth;
+    private int sourceHeight;
+    private float uprightWidth;
+    private float uprightHeight;
+    private float baseScale;
+    private float scale;
+    private float zoom = 1;
+    private float panX;
+    private float panY;
+    //Incremented on every image change, so work started for a previous image is dropped
+    private volatile int generation;
+
+    public TiledImageView(final Context context)
+    {
+        this(context, null);
+    }
+
+    public TiledImageView(final Context context, final AttributeSet attrs)
+    {
+        super(context, attrs);
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleListener());
+        gestureDetector = new GestureDetector(context, new GestureListener());
+    }
+
+    /**
+     * Told when the region decoder of an image can't be opened, so only the preview can be shown.
+     */
+    public interface OnOpenFailedListener
+    {
+        void onOpenFailed(@NonNull TiledImageView view, @Nullable Bitmap preview);
+    }
+
+    public void setOnOpenFailedListener(@Nullable OnOpenFailedListener listener)
+    {
+        this.onOpenFailedListener = listener;
+    }
+
+    /**
+     * Whether an image of width x height and mimeType should be shown with this view.
+     */
+    public static boolean shouldTile(int width, int height, @Nullable String mimeType)
+    {
+        return (long) width * height > MIN_TILED_PIXELS && BitmapUtils.isSupportedByRegionDecoder(mimeType);
+    }
+
+    /**
+     * Show the image at path, opening its region decoder in the background.
+     *
+     * @param mimeType    the MIME type of the image, which decides the config of the tiles
+     * @param orientation the EXIF orientation of the image
+     * @param width       the width of the image as stored, before the orientation, 0 if unknown
+     * @param height      the height of the image as stored, 0 if unknown
+     * @param preview     the image already resized and rotated, drawn until the tiles are ready
+     */
+    public void setImage(@NonNull final String path, long dateModified, @Nullable String mimeType, int orientation, int width, int height,
+            @Nullable final Bitmap preview)
+    {
+        recycle();
+
+        this.path = path;
+        this.dateModified = dateModified;
+        this.tileConfig = DecodeConfigPolicy.forDevice(getContext()).getConfig(mimeType);
+        this.orientation = orientation;
+        this.preview = preview;
+
+        //Laid out right away, so the preview is drawn while the decoder opens
+        if (width > 0 && height > 0)
+        {
+            setSourceSize(width, height);
+        } else if (preview != null)
+        {
+            setUprightSize(preview.getWidth(), preview.getHeight());
+        }
+
+        final int requestGeneration = generation;
+
+        ImageExecutor.getInstance().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (requestGeneration != generation)
+                {
+                    return;
+                }
+
+                try
+                {
+                    final BitmapRegionDecoder opened = BitmapRegionDecoder.newInstance(path, false);
+
+                    post(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            if (requestGeneration == generation)
+                            {
+                                setDecoder(opened);
+                            } else
+                            {
+                                opened.recycle();
+                            }
+                        }
+                    });
+                } catch (IOException e)
+                {
+                    Log.w(TAG, "Unable to open region decoder for " + path, e);
+
+                    post(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            if (requestGeneration == generation && onOpenFailedListener != null)
+                            {
+                                onOpenFailedListener.onOpenFailed(TiledImageView.this, preview);
+                            }
+                        }
+                    });
+                }
+            }
+        }, ImageExecutor.PRIORITY_VISIBLE);
+    }
+
+    /**
+     * Release the region decoder and forget the current image. Decoded tiles stay in the
+     * {@link TileCache}.
+     * <p/>
+     * The decoder is recycled in the background, since a tile may still be decoding with it.
+     * Tiles not started yet are dropped by the generation change.
+     */
+    public void recycle()
+    {
+        generation++;
+        pendingTiles.clear();
+
+        if (decoder != null)
+        {
+            final BitmapRegionDecoder closed = decoder;
+            decoder = null;
+
+            ImageExecutor.getInstance().execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized (closed)
+                    {
+                        closed.recycle();
+                    }
+                }
+            }, ImageExecutor.PRIORITY_VISIBLE);
+        }
+
+        path = null;
+        preview = null;
+        sourceWidth = 0;
+        sourceHeight = 0;
+        uprightWidth = 0;
+        uprightHeight = 0;
+        baseScale = 0;
+        scale = 0;
+        zoom = 1;
+        panX = 0;
+        panY = 0;
+        invalidate();
+    }
+
+    @Override
+    public boolean onTouchEvent(final MotionEvent event)
+    {
+        if (decoder == null)
+        {
+            return super.onTouchEvent(event);
+        }
+
+        scaleDetector.onTouchEvent(event);
+        gestureDetector.onTouchEvent(event);
+
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN || event.getPointerCount() > 1)
+        {
+            //Keep the pager from swiping while zooming or panning a zoomed image
+            requestDisallowIntercept(zoom > 1 || event.getPointerCount() > 1);
+        }
+
+        return true;
+    }
+
+    @Override
+    protected void onSizeChanged(final int w, final int h, final int oldw, final int oldh)
+    {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateMatrix();
+    }
+
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        recycle();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onDraw(final Canvas canvas)
+    {
+        super.onDraw(canvas);
+
+        if (uprightWidth <= 0 || scale <= 0)
+        {
+            return;
+        }
+
+        if (preview != null)
+        {
+            canvas.save();
+            canvas.concat(displayMatrix);
+            canvas.scale(uprightWidth / preview.getWidth(), uprightHeight / preview.getHeight());
+            canvas.drawBitmap(preview, 0, 0, paint);
+            canvas.restore();
+
+            if (preview.getWidth() >= uprightWidth * scale)
+            {
+                //The preview is already sharp at this zoom
+                return;
+            }
+        }
+
+        if (decoder != null)
+        {
+            drawTiles(canvas);
+        }
+    }
+
+    private void setDecoder(@NonNull BitmapRegionDecoder decoder)
+    {
+        this.decoder = decoder;
+
+        //The decoder knows the real size, MediaStore may not
+        setSourceSize(decoder.getWidth(), decoder.getHeight());
+    }
+
+    private void setSourceSize(int width, int height)
+    {
+        sourceWidth = width;
+        sourceHeight = height;
+
+        //Same transformation the pipeline applies to the preview, moved back to the origin
+        RectF bounds = new RectF(0, 0, sourceWidth, sourceHeight);
+        orientationMatrix.set(OrientationResolver.getMatrix(orientation));
+        orientationMatrix.mapRect(bounds);
+        orientationMatrix.postTranslate(-bounds.left, -bounds.top);
+        uprightWidth = bounds.width();
+        uprightHeight = bounds.height();
+
+        updateMatrix();
+    }
+
+    // Set the size from an upright size, undoing the orientation.
+    private void setUprightSize(int uprightWidth, int uprightHeight)
+    {
+        RectF bounds = new RectF(0, 0, uprightWidth, uprightHeight);
+        Matrix inverse = new Matrix();
+
+        OrientationResolver.getMatrix(orientation).invert(inverse);
+        inverse.mapRect(bounds);
+        setSourceSize(Math.round(bounds.width()), Math.round(bounds.height()));
+    }
+
+    private void updateMatrix()
+    {
+        int width = getWidth();
+        int height = getHeight();
+
+        if (uprightWidth <= 0 || width <= 0 || height <= 0)
+        {
+            return;
+        }
+
+        baseScale = Math.max(width / uprightWidth, height / uprightHeight);
+        scale = baseScale * zoom;
+
+        float maxPanX = (uprightWidth * scale - width) / 2;
+        float maxPanY = (uprightHeight * scale - height) / 2;
+        panX = Math.max(-maxPanX, Math.min(maxPanX, panX));
+        panY = Math.max(-maxPanY, Math.min(maxPanY, panY));
+
+        displayMatrix.setScale(scale, scale);
+        displayMatrix.postTranslate((width - uprightWidth * scale) / 2 + panX, (height - uprightHeight * scale) / 2 + panY);
+
+        imageMatrix.set(orientationMatrix);
+        imageMatrix.postConcat(displayMatrix);
+
+        invalidate();
+    }
+
+    private void drawTiles(@NonNull Canvas canvas)
+    {
+        if (!imageMatrix.invert(inverseMatrix))
+        {
+            return;
+        }
+
+        visibleRect.set(0, 0, getWidth(), getHeight());
+        inverseMatrix.mapRect(visibleRect);
+
+        if (!visibleRect.intersect(0, 0, sourceWidth, sourceHeight))
+        {
+            return;
+        }
+
+        int sampleSize = scale >= 1 ? 1 : Util.prevPowerOf2((int) (1 / scale));
+        int sourceTileSize = TILE_SIZE * sampleSize;
+        int firstColumn = (int) (visibleRect.left / sourceTileSize);
+        int lastColumn = Math.min((sourceWidth - 1) / sourceTileSize, (int) (visibleRect.right / sourceTileSize));
+        int firstRow = (int) (visibleRect.top / sourceTileSize);
+        int lastRow = Math.min((sourceHeight - 1) / sourceTileSize, (int) (visibleRect.bottom / sourceTileSize));
+        TileCache tileCache = TileCache.getInstance();
+
+        canvas.save();
+        canvas.concat(imageMatrix);
+
+        for (int row = firstRow; row <= lastRow; row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                tileRect.set(column * sourceTileSize, row * sourceTileSize,
+                        Math.min(sourceWidth, (column + 1) * sourceTileSize), Math.min(sourceHeight, (row + 1) * sourceTileSize));
+
+                String key = TileCache.createKey(path, dateModified, sampleSize, column, row);
+                Bitmap tile = tileCache.get(key);
+
+                if (tile != null)
+                {
+                    canvas.drawBitmap(tile, null, tileRect, paint);
+                } else if (pendingTiles.add(key))
+                {
+                    ImageExecutor.getInstance().execute(new TileTask(decoder, key, new Rect(tileRect), sampleSize, tileConfig, generation),
+                            ImageExecutor.PRIORITY_VISIBLE);
+                }
+            }
+        }
+
+        canvas.restore();
+    }
+
+    private void requestDisallowIntercept(boolean disallow)
+    {
+        ViewParent parent = getParent();
+
+        if (parent != null)
+        {
+            parent.requestDisallowInterceptTouchEvent(disallow);
+        }
+    }
+
+    private final class TileTask implements Runnable
+    {
+        private final BitmapRegionDecoder decoder;
+        private final String key;
+        private final Rect rect;
+        private final int sampleSize;
+        private final Bitmap.Config config;
+        private final int taskGeneration;
+
+        TileTask(BitmapRegionDecoder decoder, String key, Rect rect, int sampleSize, Bitmap.Config config, int taskGeneration)
+        {
+            this.decoder = decoder;
+            this.key = key;
+            this.rect = rect;
+            this.sampleSize = sampleSize;
+            this.config = config;
+            this.taskGeneration = taskGeneration;
+        }
+
+        @Override
+        public void run()
+        {
+            if (taskGeneration != generation)
+            {
+                return;
+            }
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+            options.inDither = config == Bitmap.Config.RGB_565;
+
+            Bitmap tile = null;
+
+            synchronized (decoder)
+            {
+                //The view may have moved on while this task waited for the decoder
+                if (taskGeneration == generation && !decoder.isRecycled())
+                {
+                    try
+                    {
+                        tile = decoder.decodeRegion(rect, options);
+                    } catch (OutOfMemoryError e)
+                    {
+                        Log.w(TAG, "Out of memory decoding tile " + key, e);
+                    }
+                }
+            }
+
+            if (tile != null)
+            {
+                TileCache.getInstance().put(key, tile);
+            }
+
+            post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (taskGeneration == generation)
+                    {
+                        pendingTiles.remove(key);
+                        invalidate();
+                    }
+                }
+            });
+        }
+    }
+
+    private final class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener
+    {
+        @Override
+        public boolean onScale(final ScaleGestureDetector detector)
+        {
+            float maxZoom = Math.max(1, MAX_SOURCE_SCALE / baseScale);
+            float newZoom = Math.max(1, Math.min(maxZoom, zoom * detector.getScaleFactor()));
+            float ratio = newZoom / zoom;
+
+            //Keep the point under the focus where it is
+            float focusX = detector.getFocusX() - getWidth() / 2f;
+            float focusY = detector.getFocusY() - getHeight() / 2f;
+            panX = focusX - (focusX - panX) * ratio;
+            panY = focusY - (focusY - panY) * ratio;
+            zoom = newZoom;
+
+            updateMatrix();
+            return true;
+        }
+    }
+
+    private final class GestureListener extends GestureDetector.SimpleOnGestureListener
+    {
+        @Override
+        public boolean onDown(final MotionEvent e)
+        {
+            return true;
+        }
+
+        @Override
+        public boolean onScroll(final MotionEvent e1, final MotionEvent e2, final float distanceX, final float distanceY)
+        {
+            if (zoom <= 1 || scaleDetector.isInProgress())
+            {
+                return false;
+            }
+
+            float oldPanX = panX;
+            panX -= distanceX;
+            panY -= distanceY;
+            updateMatrix();
+
+            if (panX == oldPanX && distanceX != 0)
+            {
+                //At the edge, let the pager take the swipe
+                requestDisallowIntercept(false);
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean onDoubleTap(final MotionEvent e)
+        {
+            zoom = 1;
+            panX = 0;
+            panY = 0;
+            updateMatrix();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.tinchoapps.palettetest.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports the images picked with {@link GalleryUtils#startSystemGalleryIntent} (as returned by
+ * {@link GalleryUtils#getResultFromGalleryIntent}) using {@link BitmapUtils#copyBitmapToDestination}
+ * on a bounded pool of workers.
+ * <p/>
+ * Each batch only imports as many images at once as its memory budget allows, and is cancelled
+ * by interrupting its running workers, which stop at the Thread.interrupted() checkpoints of the
+ * copy. Workers that didn't start yet finish right away when they do.
+ */
+public final class BatchImporter
+{
+    private static final String TAG = "BatchImporter";
+    //Peak bytes of one import: the decode (up to twice the target pixels) plus the final bitmap, 4 bytes per pixel
+    private static final int BYTES_PER_TARGET_PIXEL = 3 * 4;
+
+    private final Context context;
+    private final int poolSize;
+    private final ExecutorService workers;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public interface Listener
+    {
+        /**
+         * Called on the main thread after every image, imported or not.
+         */
+        void onProgress(int completed, int total);
+
+        /**
+         * Called on the main thread once the batch is done or cancelled.
+         *
+         * @param files the imported file of each uri, in order, null for the ones that failed or
+         *              were not imported
+         */
+        void onFinished(@NonNull List<File> files, boolean cancelled);
+    }
+
+    public BatchImporter(@NonNull Context context)
+    {
+        this(context, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchImporter(@NonNull Context context, int poolSize)
+    {
+        this.context = context.getApplicationContext();
+        this.poolSize = poolSize;
+        this.workers = Executors.newFixedThreadPool(poolSize);
+    }
+
+    /**
+     * Import uris into destinationDir, as JPEGs resized to fit maxWidth x maxHeight.
+     *
+     * @param memoryBudgetBytes bytes the batch may use for decoding at once, at least one image
+     *                          is always imported at a time
+     * @throws IllegalArgumentException if maxWidth or maxHeight is not positive
+     */
+    @NonNull
+    public Batch importAll(@NonNull List<Uri> uris, int maxWidth, int maxHeight, @NonNull File destinationDir, boolean fixRotation,
+                           long memoryBudgetBytes, @NonNull Listener listener)
+    {
+        if (maxWidth <= 0 || maxHeight <= 0)
+        {
+            throw new IllegalArgumentException("Invalid size " + maxWidth + "x" + maxHeight);
+        }
+
+        long bytesPerImage = (long) maxWidth * maxHeight * BYTES_PER_TARGET_PIXEL;
+        int concurrency = (int) Math.max(1, Math.min(poolSize, memoryBudgetBytes / bytesPerImage));
+
+        Batch batch = new Batch(new ArrayList<>(uris), maxWidth, maxHeight, destinationDir, fixRotation, listener, concurrency);
+        batch.start();
+        return batch;
+    }
+
+    /**
+     * Stop accepting batches, the running ones are completed.
+     */
+    public void shutdown()
+    {
+        workers.shutdown();
+    }
+
+    public final class Batch
+    {
+        private final List<Uri> uris;
+        private final int maxWidth;
+        private final int maxHeight;
+        private final File destinationDir;
+        private final boolean fixRotation;
+        private final Listener listener;
+        private final File[] files;
+        //The thread of each runner while it runs, to interrupt on cancel
+        private final Thread[] runnerThreads;
+        private final String namePrefix = "import_" + System.currentTimeMillis();
+        private final AtomicInteger nextIndex = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicInteger activeRunners = new AtomicInteger();
+        private volatile boolean cancelled;
+
+        private Batch(List<Uri> uris, int maxWidth, int maxHeight, File destinationDir, boolean fixRotation, Listener listener, int concurrency)
+        {
+            this.uris = uris;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.destinationDir = destinationDir;
+            this.fixRotation = fixRotation;
+            this.listener = listener;
+            this.files = new File[uris.size()];
+            this.runnerThreads = new Thread[Math.min(concurrency, Math.max(1, uris.size()))];
+        }
+
+        private void start()
+        {
+            activeRunners.set(runnerThreads.length);
+
+            //Each runner imports one image at a time, so the runners bound the memory in use
+            for (int i = 0; i < runnerThreads.length; i++)
+            {
+                final int runner = i;
+
+                workers.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        runImports(runner);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Stop the batch. Runners that didn't start still run, and finish without importing, so
+         * onFinished is always called.
+         */
+        public void cancel()
+        {
+            synchronized (runnerThreads)
+            {
+                cancelled = true;
+
+                for (Thread thread : runnerThreads)
+                {
+                    if (thread != null)
+                    {
+                        thread.interrupt();
+                    }
+                }
+            }
+        }
+
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        private void runImports(int runner)
+        {
+            synchronized (runnerThreads)
+            {
+                runnerThreads[runner] = Thread.currentThread();
+            }
+
+            try
+            {
+                int index;
+
+                while (!cancelled && (index = nextIndex.getAndIncrement()) < uris.size())
+                {
+                    files[index] = importImage(index);
+                    postProgress(completed.incrementAndGet());
+                }
+            } finally
+            {
+                synchronized (runnerThreads)
+                {
+                    runnerThreads[runner] = null;
+                }
+
+                //Don't leave the interrupt of a cancel to the next batch run by this worker
+                Thread.interrupted();
+
+                if (activeRunners.decrementAndGet() == 0)
+                {
+                    postFinished();
+                }
+            }
+        }
+
+        private File importImage(int index)
+        {
+            File destination = new File(destinationDir, String.format(Locale.US, "%s_%03d.jpg", namePrefix, index));
+
+            try
+            {
+                return BitmapUtils.copyBitmapToDestination(context, uris.get(index), maxWidth, maxHeight, destination, fixRotation);
+            } catch (Exception | OutOfMemoryError e)
+            {
+                Log.e(TAG, "Error importing " + uris.get(index), e);
+                return null;
+            }
+        }
+
+        private void postProgress(final int count)
+        {
+            mainHandler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    listener.onProgress(count, uris.size());
+                }
+            });
+        }
+
+        private void postFinished()
+        {
+            final List<File> result = Collections.unmodifiableList(Arrays.asList(files.clone()));
+
+            mainHandler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    listener.onFinished(result, cancelled);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.tinchoapps.palettetest.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LongSparseArray;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of mutable bitmaps to reuse as the target of draws and as BitmapFactory.Options.inBitmap,
+ * bucketed by width, height and config and capped in bytes. The oldest bitmaps are recycled
+ * first when the cap is exceeded.
+ * <p/>
+ * A bitmap given to {@link #put} must not be used anymore by the caller.
+ */
+public final class BitmapPool
+{
+    private final LongSparseArray<ArrayDeque<Bitmap>> buckets = new LongSparseArray<>();
+    private final ArrayDeque<Bitmap> insertionOrder = new ArrayDeque<>();
+    private long maxBytes;
+    private long retainedBytes;
+    private int hitCount;
+    private int missCount;
+
+    public BitmapPool(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * A cleared bitmap of exactly width x height and config, reused from the pool if possible.
+     */
+    @NonNull
+    public synchronized Bitmap get(int width, int height, @NonNull Bitmap.Config config)
+    {
+        Bitmap bitmap = poll(getKey(width, height, config));
+
+        if (bitmap != null)
+        {
+            hitCount++;
+            bitmap.eraseColor(Color.TRANSPARENT);
+            return bitmap;
+        }
+
+        missCount++;
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Prepare options, which must have outWidth and outHeight filled by a bounds decode and the
+     * final inSampleSize set, to decode into a pooled bitmap if there is a suitable one.
+     * The caller must retry without inBitmap if the decode throws IllegalArgumentException.
+     */
+    public synchronized void prepareForDecode(@NonNull BitmapFactory.Options options)
+    {
+        options.inMutable = true;
+
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        Bitmap bitmap = null;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+        {
+            //Any bitmap with enough memory of the same config can be reused
+            bitmap = poll(getKey(width, height, config));
+
+            if (bitmap == null)
+            {
+                bitmap = pollLargeEnough((long) width * height * getBytesPerPixel(config), config);
+            }
+        } else if (sampleSize == 1)
+        {
+            //Before KitKat only same size decodes without sampling can reuse a bitmap
+            bitmap = poll(getKey(width, height, config));
+        }
+
+        if (bitmap != null)
+        {
+            hitCount++;
+            options.inBitmap = bitmap;
+        } else
+        {
+            missCount++;
+            options.inBitmap = null;
+        }
+    }
+
+    /**
+     * Give the bitmap to the pool, recycling it if it can't be reused or doesn't fit.
+     */
+    public synchronized void put(@Nullable Bitmap bitmap)
+    {
+        if (bitmap == null || bitmap.isRecycled())
+        {
+            return;
+        }
+
+        long size = getByteCount(bitmap);
+
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || size > maxBytes)
+        {
+            bitmap.recycle();
+            return;
+        }
+
+        long key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bucket = buckets.get(key);
+
+        if (bucket == null)
+        {
+            bucket = new ArrayDeque<>();
+            buckets.put(key, bucket);
+        }
+
+        bucket.addLast(bitmap);
+        insertionOrder.addLast(bitmap);
+        retainedBytes += size;
+
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Recycle the oldest pooled bitmaps until at most maxBytes are retained.
+     */
+    public synchronized void trimToSize(long maxBytes)
+    {
+        while (retainedBytes > maxBytes && !insertionOrder.isEmpty())
+        {
+            Bitmap bitmap = insertionOrder.pollFirst();
+            ArrayDeque<Bitmap> bucket = buckets.get(getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig()));
+
+            if (bucket != null)
+            {
+                bucket.removeFirstOccurrence(bitmap);
+            }
+
+            retainedBytes -= getByteCount(bitmap);
+            bitmap.recycle();
+        }
+    }
+
+    public synchronized void setMaxBytes(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized void clear()
+    {
+        trimToSize(0);
+    }
+
+    public synchronized long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    public synchronized long getRetainedBytes()
+    {
+        return retainedBytes;
+    }
+
+    public synchronized int getHitCount()
+    {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount()
+    {
+        return missCount;
+    }
+
+    public synchronized float getHitRate()
+    {
+        int requests = hitCount + missCount;
+        return requests == 0 ? 0 : (float) hitCount / requests;
+    }
+
+    @Nullable
+    private Bitmap poll(long key)
+    {
+        ArrayDeque<Bitmap> bucket = buckets.get(key);
+
+        if (bucket == null || bucket.isEmpty())
+        {
+            return null;
+        }
+
+        Bitmap bitmap = bucket.pollLast();
+        insertionOrder.removeLastOccurrence(bitmap);
+        retainedBytes -= getByteCount(bitmap);
+        return bitmap;
+    }
+
+    @Nullable
+    private Bitmap pollLargeEnough(long bytes, @NonNull Bitmap.Config config)
+    {
+        for (Bitmap bitmap : insertionOrder)
+        {
+            if (bitmap.getConfig() == config && getByteCount(bitmap) >= bytes)
+            {
+                return poll(getKey(bitmap.getWidth(), bitmap.getHeight(), config));
+            }
+        }
+
+        return null;
+    }
+
+    private static long getKey(int width, int height, @NonNull Bitmap.Config config)
+    {
+        return ((long) width << 40) | ((long) height << 16) | config.ordinal();
+    }
+
+    private static int getBytesPerPixel(@NonNull Bitmap.Config config)
+    {
+        switch (config)
+        {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+
+    public static long getByteCount(@NonNull Bitmap bitmap)
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+        {
+            return bitmap.getAllocationByteCount();
+        }
+
+        return bitmap.getByteCount();
+    }
+}
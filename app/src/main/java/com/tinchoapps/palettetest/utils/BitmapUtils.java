@@ -2,21 +2,22 @@ package com.tinchoapps.palettetest.utils;
 
 
 import android.content.Context;
-import android.database.Cursor;
 import android.graphics.*;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.media.ExifInterface;
 import android.net.Uri;
 import android.os.Build;
-import android.provider.MediaStore;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
-import android.util.FloatMath;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 
 /**
  * Copied from Android OpenSource Project, and added some extra methods
@@ -25,7 +26,12 @@ public final class BitmapUtils
 {
     private static final String TAG = "BitmapUtils";
     private static final int DEFAULT_JPEG_QUALITY = 90;
-    public static final int UNCONSTRAINED = -1;
+    public static final int UNCONSTRAINED = SampleSizeUtils.UNCONSTRAINED;
+    //Mark limit for bounds decodes, enough to get past the EXIF and ICC segments of a JPEG
+    private static final int BOUNDS_READ_LIMIT = 256 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+    private static final int COMPRESS_HEADER_BYTES = 2 * 1024;
+    private static final String MIME_TYPE_JPEG = "image/jpeg";
 
     private BitmapUtils()
     {
@@ -52,47 +58,20 @@ public final class BitmapUtils
      */
     public static int computeSampleSize(int width, int height, int minSideLength, int maxNumOfPixels)
     {
-        int initialSize = computeInitialSampleSize(width, height, minSideLength, maxNumOfPixels);
-
-        return initialSize <= 8
-                ? Util.nextPowerOf2(initialSize)
-                : (initialSize + 7) / 8 * 8;
-    }
-
-    private static int computeInitialSampleSize(int w, int h, int minSideLength, int maxNumOfPixels)
-    {
-        if (maxNumOfPixels == UNCONSTRAINED
-                && minSideLength == UNCONSTRAINED) return 1;
-
-        int lowerBound = (maxNumOfPixels == UNCONSTRAINED) ? 1 :
-                (int) FloatMath.ceil(FloatMath.sqrt((float) (w * h) / maxNumOfPixels));
-
-        if (minSideLength == UNCONSTRAINED)
-        {
-            return lowerBound;
-        } else
-        {
-            int sampleSize = Math.min(w / minSideLength, h / minSideLength);
-            return Math.max(sampleSize, lowerBound);
-        }
+        return SampleSizeUtils.computeSampleSize(width, height, minSideLength, maxNumOfPixels);
     }
 
     // This computes a sample size which makes the longer side at least
     // minSideLength long. If that's not possible, return 1.
     public static int computeSampleSizeLarger(int w, int h, int minSideLength)
     {
-        int initialSize = Math.max(w / minSideLength, h / minSideLength);
-        if (initialSize <= 1) return 1;
-
-        return initialSize <= 8
-                ? Util.prevPowerOf2(initialSize)
-                : initialSize / 8 * 8;
+        return SampleSizeUtils.computeSampleSizeLarger(w, h, minSideLength);
     }
 
     // Find the min x that 1 / x >= scale
     public static int computeSampleSizeLarger(float scale)
     {
-        int initialSize = (int) FloatMath.floor(1f / scale);
+        int initialSize = (int) Math.floor(1f / scale);
         if (initialSize <= 1) return 1;
 
         return initialSize <= 8
@@ -104,27 +83,154 @@ public final class BitmapUtils
     public static int computeSampleSize(float scale)
     {
         Util.assertTrue(scale > 0);
-        int initialSize = Math.max(1, (int) FloatMath.ceil(1 / scale));
+        int initialSize = Math.max(1, (int) Math.ceil(1 / scale));
         return initialSize <= 8
                 ? Util.nextPowerOf2(initialSize)
                 : (initialSize + 7) / 8 * 8;
     }
 
+    /**
+     * Decode the file at path reading its bounds first, so the full resolution image is never
+     * allocated.
+     * The sample size keeps the longer side at least maxSideLength long (the caller is expected
+     * to finish with {@link #resizeDownBySideLength}), and is increased if needed so the
+     * decoded bitmap stays under maxNumOfPixels.
+     * Both constraints can be passed in as UNCONSTRAINED.
+     *
+     * @return the decoded bitmap, or null if the file could not be decoded
+     */
+    public static Bitmap decodeSampledBitmap(@NonNull String path, int maxSideLength, int maxNumOfPixels)
+    {
+        return decodeSampledBitmap(path, maxSideLength, maxNumOfPixels, null, null);
+    }
+
+    /**
+     * Same as {@link #decodeSampledBitmap(String, int, int)}, decoding into a bitmap from pool
+     * when there is a suitable one. The result is mutable so it can go back to the pool.
+     *
+     * @param policy the config to decode to, ARGB_8888 if null
+     */
+    public static Bitmap decodeSampledBitmap(@NonNull String path, int maxSideLength, int maxNumOfPixels, @Nullable BitmapPool pool,
+                                             @Nullable DecodeConfigPolicy policy)
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = computeDecodeSampleSize(options.outWidth, options.outHeight, maxSideLength, maxNumOfPixels);
+        if (policy != null) policy.apply(options);
+
+        if (pool == null) return BitmapFactory.decodeFile(path, options);
+
+        pool.prepareForDecode(options);
+
+        try
+        {
+            return BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e)
+        {
+            //The pooled bitmap could not be reused, decode into a new one
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(path, options);
+        }
+    }
+
+    /**
+     * Same as {@link #decodeSampledBitmap(String, int, int, BitmapPool, DecodeConfigPolicy)} reading from a stream that
+     * supports mark, which is rewound between the bounds and the actual decode so the source is
+     * only opened once.
+     *
+     * @throws IOException if in could not be rewound or the pooled bitmap could not be reused,
+     *                     the caller should decode again from a new stream
+     */
+    public static Bitmap decodeSampledBitmap(@NonNull InputStream in, int maxSideLength, int maxNumOfPixels, @Nullable BitmapPool pool,
+                                             @Nullable DecodeConfigPolicy policy) throws IOException
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        in.mark(BOUNDS_READ_LIMIT);
+        BitmapFactory.decodeStream(in, null, options);
+        in.reset();
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = computeDecodeSampleSize(options.outWidth, options.outHeight, maxSideLength, maxNumOfPixels);
+        if (policy != null) policy.apply(options);
+
+        if (pool != null) pool.prepareForDecode(options);
+
+        try
+        {
+            return BitmapFactory.decodeStream(in, null, options);
+        } catch (IllegalArgumentException e)
+        {
+            if (options.inBitmap == null) throw e;
+            pool.put(options.inBitmap);
+            throw new IOException("Unable to decode into a pooled bitmap.", e);
+        }
+    }
+
+    /**
+     * The sample size decodeSampledBitmap uses for an image of width x height.
+     */
+    static int computeDecodeSampleSize(int width, int height, int maxSideLength, int maxNumOfPixels)
+    {
+        int sampleSize = maxSideLength == UNCONSTRAINED
+                ? 1
+                : computeSampleSizeLarger(width, height, maxSideLength);
+
+        if (maxNumOfPixels != UNCONSTRAINED)
+        {
+            sampleSize = Math.max(sampleSize, computeSampleSize(width, height, UNCONSTRAINED, maxNumOfPixels));
+        }
+
+        return sampleSize;
+    }
+
     public static Bitmap resizeBitmapByScale(Bitmap bitmap, float scale, boolean recycle)
+    {
+        return resizeBitmapByScale(bitmap, scale, recycle, null);
+    }
+
+    public static Bitmap resizeBitmapByScale(Bitmap bitmap, float scale, boolean recycle, @Nullable BitmapPool pool)
     {
         int width = Math.round(bitmap.getWidth() * scale);
         int height = Math.round(bitmap.getHeight() * scale);
         if (width == bitmap.getWidth()
                 && height == bitmap.getHeight()) return bitmap;
-        Bitmap target = Bitmap.createBitmap(width, height, getConfig(bitmap));
+        Bitmap target = createBitmap(width, height, getConfig(bitmap), pool);
         Canvas canvas = new Canvas(target);
         canvas.scale(scale, scale);
         Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
         canvas.drawBitmap(bitmap, 0, 0, paint);
-        if (recycle) bitmap.recycle();
+        if (recycle) release(bitmap, pool);
         return target;
     }
 
+    // Get the target of a draw from the pool, if there is one.
+    private static Bitmap createBitmap(int width, int height, Bitmap.Config config, @Nullable BitmapPool pool)
+    {
+        return pool != null ? pool.get(width, height, config) : Bitmap.createBitmap(width, height, config);
+    }
+
+    // Give a source that is no longer needed back to the pool, or recycle it.
+    private static void release(Bitmap bitmap, @Nullable BitmapPool pool)
+    {
+        if (pool != null)
+        {
+            pool.put(bitmap);
+        } else
+        {
+            bitmap.recycle();
+        }
+    }
+
+    // The config of bitmap, so draws from it keep a decode config chosen by DecodeConfigPolicy.
     private static Bitmap.Config getConfig(Bitmap bitmap)
     {
         Bitmap.Config config = bitmap.getConfig();
@@ -136,15 +242,38 @@ public final class BitmapUtils
     }
 
     public static Bitmap resizeDownBySideLength(Bitmap bitmap, int maxLength, boolean recycle)
+    {
+        return resizeDownBySideLength(bitmap, maxLength, recycle, null);
+    }
+
+    public static Bitmap resizeDownBySideLength(Bitmap bitmap, int maxLength, boolean recycle, @Nullable BitmapPool pool)
     {
         int srcWidth = bitmap.getWidth();
         int srcHeight = bitmap.getHeight();
         float scale = Math.min((float) maxLength / srcWidth, (float) maxLength / srcHeight);
         if (scale >= 1.0f) return bitmap;
-        return resizeBitmapByScale(bitmap, scale, recycle);
+        return resizeBitmapByScale(bitmap, scale, recycle, pool);
+    }
+
+    public static Bitmap resizeDownByArea(Bitmap bitmap, int maxArea, boolean recycle)
+    {
+        return resizeDownByArea(bitmap, maxArea, recycle, null);
+    }
+
+    public static Bitmap resizeDownByArea(Bitmap bitmap, int maxArea, boolean recycle, @Nullable BitmapPool pool)
+    {
+        int area = bitmap.getWidth() * bitmap.getHeight();
+        if (area <= maxArea) return bitmap;
+        float scale = (float) Math.sqrt((double) maxArea / area);
+        return resizeBitmapByScale(bitmap, scale, recycle, pool);
     }
 
     public static Bitmap resizeAndCropCenter(Bitmap bitmap, int size, boolean recycle)
+    {
+        return resizeAndCropCenter(bitmap, size, recycle, null);
+    }
+
+    public static Bitmap resizeAndCropCenter(Bitmap bitmap, int size, boolean recycle, @Nullable BitmapPool pool)
     {
         int w = bitmap.getWidth();
         int h = bitmap.getHeight();
@@ -154,7 +283,7 @@ public final class BitmapUtils
         // the longer side will be center-cropped.
         float scale = (float) size / Math.min(w, h);
 
-        Bitmap target = Bitmap.createBitmap(size, size, getConfig(bitmap));
+        Bitmap target = createBitmap(size, size, getConfig(bitmap), pool);
         int width = Math.round(scale * bitmap.getWidth());
         int height = Math.round(scale * bitmap.getHeight());
         Canvas canvas = new Canvas(target);
@@ -162,7 +291,7 @@ public final class BitmapUtils
         canvas.scale(scale, scale);
         Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
         canvas.drawBitmap(bitmap, 0, 0, paint);
-        if (recycle) bitmap.recycle();
+        if (recycle) release(bitmap, pool);
         return target;
     }
 
@@ -179,24 +308,80 @@ public final class BitmapUtils
     }
 
     public static Bitmap rotateBitmap(Bitmap source, int rotation, boolean recycle)
+    {
+        return rotateBitmap(source, rotation, recycle, null);
+    }
+
+    public static Bitmap rotateBitmap(Bitmap source, int rotation, boolean recycle, @Nullable BitmapPool pool)
     {
         if (rotation == 0) return source;
-        int w = source.getWidth();
-        int h = source.getHeight();
         Matrix m = new Matrix();
         m.postRotate(rotation);
-        Bitmap bitmap = Bitmap.createBitmap(source, 0, 0, w, h, m, true);
-        if (recycle) source.recycle();
-        return bitmap;
+        return transformBitmap(source, m, recycle, pool);
     }
 
     public static Bitmap transformBitmap(Bitmap source, Matrix matrix, boolean recycle)
     {
-        Bitmap rotatedBitmap = Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+        return transformBitmap(source, matrix, recycle, null);
+    }
+
+    /**
+     * Draw source through matrix into a bitmap just big enough for the result, taken from pool
+     * if given.
+     */
+    public static Bitmap transformBitmap(Bitmap source, Matrix matrix, boolean recycle, @Nullable BitmapPool pool)
+    {
+        if (pool == null)
+        {
+            Bitmap rotatedBitmap = Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+
+            if (recycle && rotatedBitmap != source) source.recycle();
+
+            return rotatedBitmap;
+        }
+
+        RectF bounds = new RectF(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(bounds);
 
-        if (recycle) source.recycle();
+        Bitmap target = pool.get(Math.round(bounds.width()), Math.round(bounds.height()), getConfig(source));
+        Canvas canvas = new Canvas(target);
+        canvas.translate(-bounds.left, -bounds.top);
+        canvas.concat(matrix);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+        canvas.drawBitmap(source, 0, 0, paint);
 
-        return rotatedBitmap;
+        if (recycle) pool.put(source);
+
+        return target;
+    }
+
+    /**
+     * Scale bitmap down so its longer side is at most maxLength and apply matrix (an EXIF
+     * rotation or flip) with a single draw into a target of the final size. Produces the same
+     * result as {@link #resizeDownBySideLength} followed by {@link #transformBitmap} without the
+     * intermediate bitmap.
+     */
+    public static Bitmap resizeDownAndTransform(Bitmap bitmap, int maxLength, Matrix matrix, boolean recycle, @Nullable BitmapPool pool)
+    {
+        int srcWidth = bitmap.getWidth();
+        int srcHeight = bitmap.getHeight();
+        float scale = Math.min(1f, Math.min((float) maxLength / srcWidth, (float) maxLength / srcHeight));
+        int width = Math.round(srcWidth * scale);
+        int height = Math.round(srcHeight * scale);
+        if (matrix.isIdentity()) return resizeDownBySideLength(bitmap, maxLength, recycle, pool);
+
+        RectF bounds = new RectF(0, 0, width, height);
+        matrix.mapRect(bounds);
+
+        Bitmap target = createBitmap(Math.round(bounds.width()), Math.round(bounds.height()), getConfig(bitmap), pool);
+        Canvas canvas = new Canvas(target);
+        canvas.translate(-bounds.left, -bounds.top);
+        canvas.concat(matrix);
+        canvas.scale(scale, scale);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+        canvas.drawBitmap(bitmap, 0, 0, paint);
+        if (recycle) release(bitmap, pool);
+        return target;
     }
 
     public static Bitmap createVideoThumbnail(String filePath)
@@ -253,11 +438,55 @@ public final class BitmapUtils
         return compressToBytes(bitmap, DEFAULT_JPEG_QUALITY);
     }
 
+    /**
+     * The bitmap as JPEG, null if it could not be compressed. Use {@link #compressToBuffer} to
+     * read the bytes without copying them into an array.
+     */
     public static byte[] compressToBytes(Bitmap bitmap, int quality)
     {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(65536);
-        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, baos);
-        return baos.toByteArray();
+        ByteBufferOutputStream out = compressToBuffer(bitmap, Bitmap.CompressFormat.JPEG, quality);
+
+        if (out == null) return null;
+
+        try
+        {
+            return out.toByteArray();
+        } finally
+        {
+            out.release();
+        }
+    }
+
+    /**
+     * Compress the bitmap into a pooled stream sized up front from its pixels and quality, so it
+     * rarely grows. The bytes can be read with {@link ByteBufferOutputStream#toByteBuffer()}, and
+     * the caller must release the stream when done.
+     *
+     * @return the stream with the compressed bitmap, or null if it could not be compressed
+     */
+    @Nullable
+    public static ByteBufferOutputStream compressToBuffer(@NonNull Bitmap bitmap, @NonNull Bitmap.CompressFormat format, int quality)
+    {
+        ByteBufferOutputStream out = ByteBufferOutputStream.obtain(estimateCompressedSize(bitmap.getWidth(), bitmap.getHeight(), format, quality));
+
+        if (!bitmap.compress(format, quality, out))
+        {
+            out.release();
+            return null;
+        }
+
+        return out;
+    }
+
+    // A guess of the compressed size, photos at quality 90 are about 3 bits per pixel. PNG varies
+    // too much to size for the worst case, its buffer grows when needed.
+    private static int estimateCompressedSize(int width, int height, @NonNull Bitmap.CompressFormat format, int quality)
+    {
+        float bytesPerPixel = format == Bitmap.CompressFormat.PNG
+                ? 1f
+                : 0.05f + 0.45f * (quality / 100f) * (quality / 100f);
+
+        return (int) Math.min(Integer.MAX_VALUE, COMPRESS_HEADER_BYTES + (long) (bytesPerPixel * width * height));
     }
 
     public static boolean isSupportedByRegionDecoder(String mimeType)
@@ -275,27 +504,39 @@ public final class BitmapUtils
         return mimeType.equals("image/jpeg");
     }
 
+    /**
+     * Compress bitmap into savePath. The data is written to a temporary file next to it which
+     * is renamed on success, so savePath never holds a partially written image.
+     *
+     * @return the saved file, or null if it could not be written
+     */
     public static File saveToFile(@NonNull final Bitmap bitmap, @NonNull final String savePath, @NonNull final Bitmap.CompressFormat format, final int quality, final boolean recycle)
     {
-        FileOutputStream out = null;
-        File file = null;
+        File file = new File(savePath);
+        File tempFile = new File(savePath + ".tmp");
+        OutputStream out = null;
+        boolean saved = false;
 
         try
         {
-            out = new FileOutputStream(savePath);
-            bitmap.compress(format, quality, out);
+            //Encoded straight into the file, nothing as big as the output is held in memory
+            out = new BufferedOutputStream(new FileOutputStream(tempFile), STREAM_BUFFER_SIZE);
+            saved = bitmap.compress(format, quality, out);
 
-            if (recycle)
+            if (!saved)
             {
-                bitmap.recycle();
+                Log.e(TAG, "Error compressing bitmap.");
             }
-
-            file = new File(savePath);
-        } catch (Exception e)
+        } catch (IOException e)
         {
-            Log.e(TAG, "Error saving bitmap.");
+            Log.e(TAG, "Error saving bitmap.", e);
         } finally
         {
+            if (recycle)
+            {
+                bitmap.recycle();
+            }
+
             try
             {
                 if (out != null)
@@ -304,120 +545,173 @@ public final class BitmapUtils
                 }
             } catch (IOException e)
             {
-                Log.e(TAG, "Error saving bitmap.");
+                Log.e(TAG, "Error saving bitmap.", e);
+                saved = false;
             }
         }
 
+        if (!saved || !tempFile.renameTo(file))
+        {
+            tempFile.delete();
+            return null;
+        }
+
         return file;
     }
 
     public static File copyBitmapToDestination(@NonNull Context context, @NonNull Uri uri, int maxWidth, int maxHeight, @NonNull File destinationFile, boolean fixRotation) throws IOException, OutOfMemoryError
     {
         Bitmap bitmap;
-        InputStream input;
-        input = context.getContentResolver().openInputStream(uri);
+        int orientation;
+        InputStream input = openBufferedStream(context, uri);
 
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
+        try
+        {
+            //Read the orientation from the stream we are about to decode
+            int sourceOrientation = OrientationResolver.getOrientation(context, uri, input);
+            orientation = fixRotation ? sourceOrientation : ExifInterface.ORIENTATION_NORMAL;
 
-        BitmapFactory.decodeStream(input, null, options);
-        int imageHeight = options.outHeight;
-        int imageWidth = options.outWidth;
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
 
-        input = context.getContentResolver().openInputStream(uri);//must recreate the stream, resetting it just throws IOException
+            input.mark(BOUNDS_READ_LIMIT);
+            BitmapFactory.decodeStream(input, null, options);
+            int imageHeight = options.outHeight;
+            int imageWidth = options.outWidth;
 
-        //Decode to the nearest power of 2 (max_size *2 as maximum memory)
-        options.inJustDecodeBounds = false;
-        options.inSampleSize = computeSampleSize(imageWidth, imageHeight, Math.min(maxWidth, maxHeight), maxWidth * maxHeight * 2);
-        bitmap = BitmapFactory.decodeStream(input, null, options);
+            //Decode to the nearest power of 2 (max_size *2 as maximum memory)
+            int sampleSize = computeSampleSize(imageWidth, imageHeight, Math.min(maxWidth, maxHeight),
+                    (int) Math.min(Integer.MAX_VALUE, (long) maxWidth * maxHeight * 2));
+
+            //A JPEG that would be neither resized nor rotated is copied as is, without a lossy re-encode
+            if (sampleSize == 1 && Math.max(imageWidth, imageHeight) <= Math.max(maxWidth, maxHeight)
+                    && MIME_TYPE_JPEG.equals(options.outMimeType) && sourceOrientation == ExifInterface.ORIENTATION_NORMAL)
+            {
+                ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+
+                //Some providers hand out pipes, which have no size to transfer from
+                if (descriptor != null && descriptor.getStatSize() >= 0)
+                {
+                    return copyToFile(descriptor, destinationFile);
+                }
+
+                closeSilently(descriptor);
+            }
+
+            try
+            {
+                input.reset();
+            } catch (IOException e)
+            {
+                //Older BitmapFactory versions mark the stream themselves, so it may not rewind
+                closeSilently(input);
+                input = openBufferedStream(context, uri);
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            //Imports are kept, so they always get full color whatever the display policy of the device
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            bitmap = BitmapFactory.decodeStream(input, null, options);
+        } finally
+        {
+            closeSilently(input);
+        }
 
         if (Thread.interrupted())
         {
             return null;
         }
 
-        //Resize to the final size
-        bitmap = resizeDownBySideLength(bitmap, Math.max(maxWidth, maxHeight), true);
+        //Resize to the final size and fix rotation in a single draw
+        bitmap = resizeDownAndTransform(bitmap, Math.max(maxWidth, maxHeight), OrientationResolver.getMatrix(orientation), true, null);
 
         if (Thread.interrupted())
         {
             return null;
         }
 
-        //Fix rotation
-        if (fixRotation)
-        {
-            ExifInterface ei = new ExifInterface(uri.getPath());
-            int orientation = ei.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-
-            Matrix matrix = new Matrix();
-
-            switch (orientation)
-            {
-                case ExifInterface.ORIENTATION_UNDEFINED:
-
-                    //Unknown orientation reported, so we check if ContentResolver says different (SAMSUNG BUG, I'm looking at you!)
-
-                    String[] orientationColumn = {MediaStore.Images.Media.ORIENTATION};
-                    Cursor cur = context.getContentResolver().query(uri, orientationColumn, null, null, null);
+        //Save the file
+        return saveToFile(bitmap, destinationFile.getAbsolutePath(), Bitmap.CompressFormat.JPEG, 90, true);
+    }
 
-                    if (cur != null && cur.moveToFirst())
-                    {
-                        int mediaOrientation = cur.getInt(cur.getColumnIndex(orientationColumn[0]));
-                        matrix.setRotate(mediaOrientation);
-                        cur.close();
-                    }
-                    break;
+    /**
+     * Copy the file of descriptor to destinationFile through a temp file, letting the channels
+     * transfer the bytes between the files. Closes descriptor.
+     *
+     * @return destinationFile, or null if the copy was interrupted
+     */
+    @Nullable
+    private static File copyToFile(@NonNull ParcelFileDescriptor descriptor, @NonNull File destinationFile) throws IOException
+    {
+        File tempFile = new File(destinationFile.getPath() + ".tmp");
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        boolean copied = false;
 
-                case ExifInterface.ORIENTATION_NORMAL:
+        try
+        {
+            in = new FileInputStream(descriptor.getFileDescriptor());
+            out = new FileOutputStream(tempFile);
 
-                    break;
+            FileChannel source = in.getChannel();
+            FileChannel target = out.getChannel();
+            long size = source.size();
+            long position = 0;
 
-                case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
-                    matrix.setScale(-1, 1);
-                    break;
+            while (position < size)
+            {
+                long transferred = source.transferTo(position, size - position, target);
 
-                case ExifInterface.ORIENTATION_ROTATE_180:
-                    matrix.setRotate(180);
-                    break;
+                //The file shrank while being copied
+                if (transferred <= 0) break;
 
-                case ExifInterface.ORIENTATION_FLIP_VERTICAL:
-                    matrix.setRotate(180);
-                    matrix.postScale(-1, 1);
-                    break;
+                position += transferred;
+            }
 
-                case ExifInterface.ORIENTATION_TRANSPOSE:
-                    matrix.setRotate(90);
-                    matrix.postScale(-1, 1);
-                    break;
+            copied = position == size;
+        } catch (ClosedByInterruptException e)
+        {
+            //Cancelled, like the interrupted decodes
+            Thread.interrupted();
+        } finally
+        {
+            closeSilently(in);
+            closeSilently(out);
+            closeSilently(descriptor);
+        }
 
-                case ExifInterface.ORIENTATION_ROTATE_90:
-                    matrix.setRotate(90);
-                    break;
+        if (!copied || !tempFile.renameTo(destinationFile))
+        {
+            tempFile.delete();
+            return null;
+        }
 
-                case ExifInterface.ORIENTATION_TRANSVERSE:
-                    matrix.setRotate(-90);
-                    matrix.postScale(-1, 1);
-                    break;
+        return destinationFile;
+    }
 
-                case ExifInterface.ORIENTATION_ROTATE_270:
-                    matrix.setRotate(-90);
-                    break;
-            }
+    private static InputStream openBufferedStream(@NonNull Context context, @NonNull Uri uri) throws IOException
+    {
+        InputStream input = context.getContentResolver().openInputStream(uri);
 
-            if (!matrix.isIdentity())
-            {
-                bitmap = transformBitmap(bitmap, matrix, true);
-            }
+        if (input == null)
+        {
+            throw new FileNotFoundException("Unable to open " + uri);
         }
 
-        if (Thread.interrupted())
+        return new BufferedInputStream(input, STREAM_BUFFER_SIZE);
+    }
+
+    private static void closeSilently(@Nullable Closeable closeable)
+    {
+        if (closeable == null) return;
+        try
         {
-            return null;
+            closeable.close();
+        } catch (IOException e)
+        {
+            Log.w(TAG, "close fail", e);
         }
-
-        //Save the file
-        return saveToFile(bitmap, destinationFile.getAbsolutePath(), Bitmap.CompressFormat.JPEG, 90, true);
     }
 
     public static Bitmap drawableToBitmap(Drawable drawable)
@@ -0,0 +1,160 @@
+package com.tinchoapps.palettetest.utils;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Growable in-memory output stream whose bytes can be read as a {@link ByteBuffer} over its own
+ * array, so encoded images are handed to channels and uploads without the copy of
+ * ByteArrayOutputStream.toByteArray().
+ * <p/>
+ * Streams come from a small pool: get one with {@link #obtain} and give it back with
+ * {@link #release} once its bytes are no longer read.
+ */
+public final class ByteBufferOutputStream extends OutputStream
+{
+    private static final int MAX_POOLED = 2;
+    //Larger buffers are left to the garbage collector instead of being kept around
+    private static final int MAX_POOLED_CAPACITY = 4 * 1024 * 1024;
+    private static final ArrayDeque<ByteBufferOutputStream> pool = new ArrayDeque<>();
+
+    private byte[] buffer;
+    private int count;
+
+    private ByteBufferOutputStream(int capacity)
+    {
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * An empty stream with room for at least capacity bytes, reused from the pool if possible.
+     */
+    @NonNull
+    public static ByteBufferOutputStream obtain(int capacity)
+    {
+        synchronized (pool)
+        {
+            Iterator<ByteBufferOutputStream> iterator = pool.iterator();
+
+            while (iterator.hasNext())
+            {
+                ByteBufferOutputStream stream = iterator.next();
+
+                if (stream.buffer.length >= capacity)
+                {
+                    iterator.remove();
+                    return stream;
+                }
+            }
+
+            ByteBufferOutputStream stream = pool.pollFirst();
+
+            if (stream != null)
+            {
+                stream.ensureCapacity(capacity);
+                return stream;
+            }
+        }
+
+        return new ByteBufferOutputStream(capacity);
+    }
+
+    /**
+     * Give the stream back to the pool. Neither it nor a buffer from {@link #toByteBuffer} may
+     * be used afterwards.
+     */
+    public void release()
+    {
+        count = 0;
+
+        if (buffer.length > MAX_POOLED_CAPACITY)
+        {
+            return;
+        }
+
+        synchronized (pool)
+        {
+            if (pool.size() < MAX_POOLED && !pool.contains(this))
+            {
+                pool.addLast(this);
+            }
+        }
+    }
+
+    /**
+     * Drop the pooled streams, for when memory is needed elsewhere.
+     */
+    public static void clearPool()
+    {
+        synchronized (pool)
+        {
+            pool.clear();
+        }
+    }
+
+    @Override
+    public void write(final int oneByte)
+    {
+        ensureCapacity(count + 1);
+        buffer[count++] = (byte) oneByte;
+    }
+
+    @Override
+    public void write(@NonNull final byte[] bytes, final int offset, final int length)
+    {
+        ensureCapacity(count + length);
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * The bytes written so far, read-only and backed by the array of the stream.
+     */
+    @NonNull
+    public ByteBuffer toByteBuffer()
+    {
+        return ByteBuffer.wrap(buffer, 0, count).asReadOnlyBuffer();
+    }
+
+    /**
+     * A copy of the bytes written so far, for APIs that need an array of the exact size.
+     */
+    @NonNull
+    public byte[] toByteArray()
+    {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * Write all the bytes to channel.
+     */
+    public void writeTo(@NonNull WritableByteChannel channel) throws IOException
+    {
+        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, count);
+
+        while (bytes.hasRemaining())
+        {
+            channel.write(bytes);
+        }
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > buffer.length)
+        {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length + (buffer.length >> 1)));
+        }
+    }
+}
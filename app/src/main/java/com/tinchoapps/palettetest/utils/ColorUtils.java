@@ -0,0 +1,92 @@
+package com.tinchoapps.palettetest.utils;
+
+import android.support.annotation.NonNull;
+
+public final class ColorUtils
+{
+    //D65 reference white
+    private static final double WHITE_X = 95.047;
+    private static final double WHITE_Y = 100.0;
+    private static final double WHITE_Z = 108.883;
+
+    private ColorUtils()
+    {
+    }
+
+    /**
+     * Convert an sRGB color to CIE L*a*b*, where euclidean distances approximate perceived
+     * differences.
+     *
+     * @param outLab receives L (0..100), a and b (about -128..127)
+     */
+    public static void rgbToLab(int rgb, @NonNull float[] outLab)
+    {
+        double r = linearize(((rgb >> 16) & 0xff) / 255.0);
+        double g = linearize(((rgb >> 8) & 0xff) / 255.0);
+        double b = linearize((rgb & 0xff) / 255.0);
+
+        double x = (r * 0.4124 + g * 0.3576 + b * 0.1805) * 100 / WHITE_X;
+        double y = (r * 0.2126 + g * 0.7152 + b * 0.0722) * 100 / WHITE_Y;
+        double z = (r * 0.0193 + g * 0.1192 + b * 0.9505) * 100 / WHITE_Z;
+
+        double fx = labF(x);
+        double fy = labF(y);
+        double fz = labF(z);
+
+        outLab[0] = (float) (116 * fy - 16);
+        outLab[1] = (float) (500 * (fx - fy));
+        outLab[2] = (float) (200 * (fy - fz));
+    }
+
+    /**
+     * Convert an sRGB color to hue (0..360), saturation and lightness (0..1).
+     */
+    public static void rgbToHsl(int rgb, @NonNull float[] outHsl)
+    {
+        float r = ((rgb >> 16) & 0xff) / 255f;
+        float g = ((rgb >> 8) & 0xff) / 255f;
+        float b = (rgb & 0xff) / 255f;
+
+        float max = Math.max(r, Math.max(g, b));
+        float min = Math.min(r, Math.min(g, b));
+        float delta = max - min;
+        float l = (max + min) / 2f;
+        float h;
+        float s;
+
+        if (delta == 0)
+        {
+            h = 0;
+            s = 0;
+        } else
+        {
+            if (max == r)
+            {
+                h = ((g - b) / delta) % 6f;
+            } else if (max == g)
+            {
+                h = (b - r) / delta + 2f;
+            } else
+            {
+                h = (r - g) / delta + 4f;
+            }
+
+            s = delta / (1f - Math.abs(2f * l - 1f));
+        }
+
+        h = (h * 60f) % 360f;
+        outHsl[0] = h < 0 ? h + 360f : h;
+        outHsl[1] = s;
+        outHsl[2] = l;
+    }
+
+    private static double linearize(double channel)
+    {
+        return channel <= 0.04045 ? channel / 12.92 : Math.pow((channel + 0.055) / 1.055, 2.4);
+    }
+
+    private static double labF(double t)
+    {
+        return t > 216.0 / 24389.0 ? Math.cbrt(t) : (24389.0 / 27.0 * t + 16) / 116;
+    }
+}
@@ -0,0 +1,97 @@
+package com.tinchoapps.palettetest.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Chooses the config images are decoded to. Formats that can't have alpha may be decoded to
+ * RGB_565, half the memory of ARGB_8888, dithered to hide the banding; anything else keeps
+ * ARGB_8888.
+ */
+public final class DecodeConfigPolicy
+{
+    /**
+     * Always ARGB_8888.
+     */
+    public static final DecodeConfigPolicy QUALITY = new DecodeConfigPolicy(false);
+    /**
+     * RGB_565 for opaque formats.
+     */
+    public static final DecodeConfigPolicy MEMORY = new DecodeConfigPolicy(true);
+
+    //Memory classes up to this one, in MB, get the MEMORY policy
+    private static final int LOW_MEMORY_CLASS = 64;
+    private static final String MIME_TYPE_JPEG = "image/jpeg";
+
+    private static DecodeConfigPolicy devicePolicy;
+
+    private final boolean opaqueAsRgb565;
+
+    private DecodeConfigPolicy(boolean opaqueAsRgb565)
+    {
+        this.opaqueAsRgb565 = opaqueAsRgb565;
+    }
+
+    /**
+     * MEMORY on low RAM devices and devices with a small heap, QUALITY otherwise.
+     */
+    @NonNull
+    public static synchronized DecodeConfigPolicy forDevice(@NonNull Context context)
+    {
+        if (devicePolicy == null)
+        {
+            ActivityManager activityManager = (ActivityManager) context.getApplicationContext().getSystemService(Context.ACTIVITY_SERVICE);
+            boolean lowRam = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && activityManager.isLowRamDevice();
+
+            devicePolicy = isLowMemoryDevice(lowRam, activityManager.getMemoryClass()) ? MEMORY : QUALITY;
+        }
+
+        return devicePolicy;
+    }
+
+    /**
+     * Whether a device gets the MEMORY policy.
+     *
+     * @param memoryClass the memory class of the device, in MB
+     */
+    static boolean isLowMemoryDevice(boolean lowRamDevice, int memoryClass)
+    {
+        return lowRamDevice || memoryClass <= LOW_MEMORY_CLASS;
+    }
+
+    /**
+     * Whether an image of mimeType is decoded to RGB_565.
+     */
+    public boolean usesRgb565(@Nullable String mimeType)
+    {
+        return opaqueAsRgb565 && MIME_TYPE_JPEG.equals(mimeType);
+    }
+
+    /**
+     * The config for an image of mimeType, ARGB_8888 if it is unknown.
+     */
+    @NonNull
+    public Bitmap.Config getConfig(@Nullable String mimeType)
+    {
+        return usesRgb565(mimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * Set the config of options, which must have outMimeType filled by a bounds decode.
+     */
+    public void apply(@NonNull BitmapFactory.Options options)
+    {
+        apply(options, options.outMimeType);
+    }
+
+    public void apply(@NonNull BitmapFactory.Options options, @Nullable String mimeType)
+    {
+        options.inPreferredConfig = getConfig(mimeType);
+        options.inDither = options.inPreferredConfig == Bitmap.Config.RGB_565;
+    }
+}
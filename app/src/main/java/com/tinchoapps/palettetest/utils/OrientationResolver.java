@@ -0,0 +1,389 @@
+package com.tinchoapps.palettetest.utils;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Resolves the EXIF orientation of images reading the JPEG header from the stream that is
+ * going to be decoded, instead of opening the file again with ExifInterface.
+ * When EXIF reports ORIENTATION_UNDEFINED the MediaStore orientation is used instead
+ * (SAMSUNG BUG, I'm looking at you!).
+ */
+public final class OrientationResolver
+{
+    private static final String TAG = "OrientationResolver";
+
+    //Mark limit for the header read, EXIF data can't be bigger than a 64 KB APP1 segment
+    public static final int HEADER_READ_LIMIT = 64 * 1024 + 1024;
+
+    private static final int MARKER_SOI = 0xFFD8;
+    private static final int MARKER_APP1 = 0xFFE1;
+    private static final int MARKER_SOS = 0xFFDA;
+    private static final int MARKER_EOI = 0xFFD9;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+    private static final int MEMO_ENTRIES = 512;
+
+    private static final LruCache<String, Integer> orientations = new LruCache<>(MEMO_ENTRIES);
+
+    private OrientationResolver()
+    {
+    }
+
+    /**
+     * The orientation already resolved for the file at path, or null if it has to be read.
+     */
+    @Nullable
+    public static Integer getCachedOrientation(@NonNull String path, long modified)
+    {
+        return orientations.get(createKey(path, modified));
+    }
+
+    /**
+     * Resolve the orientation of the file at path, memoized by path and modification time.
+     *
+     * @param in stream of the file that supports mark, left at the position it was given
+     */
+    public static int getOrientation(@NonNull Context context, @NonNull String path, long modified, @NonNull InputStream in)
+    {
+        String key = createKey(path, modified);
+        Integer cached = orientations.get(key);
+
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        int orientation = readOrientationSilently(in);
+
+        if (orientation == ExifInterface.ORIENTATION_UNDEFINED)
+        {
+            orientation = queryMediaStoreOrientation(context.getContentResolver(), MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                    MediaStore.Images.Media.DATA + " = ?", new String[]{path});
+        }
+
+        orientations.put(key, orientation);
+        return orientation;
+    }
+
+    /**
+     * Resolve the orientation of the image at uri, without memoizing it.
+     *
+     * @param in stream of the image that supports mark, left at the position it was given
+     */
+    public static int getOrientation(@NonNull Context context, @NonNull Uri uri, @NonNull InputStream in)
+    {
+        int orientation = readOrientationSilently(in);
+
+        if (orientation == ExifInterface.ORIENTATION_UNDEFINED)
+        {
+            orientation = queryMediaStoreOrientation(context.getContentResolver(), uri, null, null);
+        }
+
+        return orientation;
+    }
+
+    /**
+     * The transformation that displays an image with the given EXIF orientation upright.
+     */
+    @NonNull
+    public static Matrix getMatrix(int orientation)
+    {
+        Matrix matrix = new Matrix();
+
+        switch (orientation)
+        {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setRotate(180);
+                matrix.postScale(-1, 1);
+                break;
+
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+        }
+
+        return matrix;
+    }
+
+    /**
+     * Read the EXIF orientation tag from the JPEG header of in. The stream is marked and reset,
+     * so it is left where it was.
+     *
+     * @return the tag value, ORIENTATION_NORMAL if the image has none
+     */
+    public static int readOrientation(@NonNull InputStream in) throws IOException
+    {
+        in.mark(HEADER_READ_LIMIT);
+
+        try
+        {
+            return parseOrientation(in);
+        } finally
+        {
+            in.reset();
+        }
+    }
+
+    private static int readOrientationSilently(@NonNull InputStream in)
+    {
+        try
+        {
+            return readOrientation(in);
+        } catch (IOException e)
+        {
+            Log.w(TAG, "Unable to read EXIF orientation.", e);
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    private static String createKey(@NonNull String path, long modified)
+    {
+        return path + '|' + modified;
+    }
+
+    private static int parseOrientation(@NonNull InputStream in) throws IOException
+    {
+        if (readUnsignedShort(in) != MARKER_SOI)
+        {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+
+        int read = 2;
+
+        while (read + 4 <= HEADER_READ_LIMIT)
+        {
+            int marker = readUnsignedShort(in);
+            int length = readUnsignedShort(in) - 2;
+            read += 4;
+
+            if ((marker & 0xFF00) != 0xFF00 || marker == MARKER_SOS || marker == MARKER_EOI || length < 0 || read + length > HEADER_READ_LIMIT)
+            {
+                break;
+            }
+
+            if (marker == MARKER_APP1)
+            {
+                byte[] segment = new byte[length];
+                readFully(in, segment);
+                read += length;
+
+                int orientation = parseExifSegment(segment);
+
+                if (orientation != -1)
+                {
+                    return orientation;
+                }
+            } else
+            {
+                skipFully(in, length);
+                read += length;
+            }
+        }
+
+        return ExifInterface.ORIENTATION_NORMAL;
+    }
+
+    // Returns the orientation in an APP1 segment, or -1 if it is not EXIF or has no orientation.
+    private static int parseExifSegment(@NonNull byte[] segment)
+    {
+        if (segment.length < 14 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i' || segment[3] != 'f'
+                || segment[4] != 0 || segment[5] != 0)
+        {
+            return -1;
+        }
+
+        int tiff = 6;
+        boolean littleEndian;
+
+        if (segment[tiff] == 'I' && segment[tiff + 1] == 'I')
+        {
+            littleEndian = true;
+        } else if (segment[tiff] == 'M' && segment[tiff + 1] == 'M')
+        {
+            littleEndian = false;
+        } else
+        {
+            return -1;
+        }
+
+        long ifdOffset = readInt(segment, tiff + 4, littleEndian) & 0xFFFFFFFFL;
+
+        if (tiff + ifdOffset + 2 > segment.length)
+        {
+            return -1;
+        }
+
+        int ifd = tiff + (int) ifdOffset;
+        int count = readShort(segment, ifd, littleEndian);
+
+        for (int i = 0; i < count; i++)
+        {
+            int entry = ifd + 2 + i * 12;
+
+            if (entry + 12 > segment.length)
+            {
+                break;
+            }
+
+            if (readShort(segment, entry, littleEndian) == TAG_ORIENTATION)
+            {
+                if (readShort(segment, entry + 2, littleEndian) != TYPE_SHORT)
+                {
+                    return -1;
+                }
+
+                return readShort(segment, entry + 8, littleEndian);
+            }
+        }
+
+        return -1;
+    }
+
+    private static int queryMediaStoreOrientation(@NonNull ContentResolver resolver, @NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs)
+    {
+        String[] orientationColumn = {MediaStore.Images.Media.ORIENTATION};
+        Cursor cur = null;
+
+        try
+        {
+            cur = resolver.query(uri, orientationColumn, selection, selectionArgs, null);
+
+            if (cur != null && cur.moveToFirst())
+            {
+                return degreesToOrientation(cur.getInt(0));
+            }
+        } catch (RuntimeException e)
+        {
+            Log.w(TAG, "Unable to query MediaStore orientation.", e);
+        } finally
+        {
+            if (cur != null)
+            {
+                cur.close();
+            }
+        }
+
+        return ExifInterface.ORIENTATION_NORMAL;
+    }
+
+    private static int degreesToOrientation(int degrees)
+    {
+        switch ((degrees % 360 + 360) % 360)
+        {
+            case 90:
+                return ExifInterface.ORIENTATION_ROTATE_90;
+            case 180:
+                return ExifInterface.ORIENTATION_ROTATE_180;
+            case 270:
+                return ExifInterface.ORIENTATION_ROTATE_270;
+            default:
+                return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    private static int readShort(@NonNull byte[] data, int offset, boolean littleEndian)
+    {
+        if (littleEndian)
+        {
+            return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+        }
+
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static int readInt(@NonNull byte[] data, int offset, boolean littleEndian)
+    {
+        if (littleEndian)
+        {
+            return readShort(data, offset, true) | (readShort(data, offset + 2, true) << 16);
+        }
+
+        return (readShort(data, offset, false) << 16) | readShort(data, offset + 2, false);
+    }
+
+    private static int readUnsignedShort(@NonNull InputStream in) throws IOException
+    {
+        int high = in.read();
+        int low = in.read();
+
+        if ((high | low) < 0)
+        {
+            throw new EOFException();
+        }
+
+        return (high << 8) | low;
+    }
+
+    private static void readFully(@NonNull InputStream in, @NonNull byte[] buffer) throws IOException
+    {
+        int offset = 0;
+
+        while (offset < buffer.length)
+        {
+            int count = in.read(buffer, offset, buffer.length - offset);
+
+            if (count < 0)
+            {
+                throw new EOFException();
+            }
+
+            offset += count;
+        }
+    }
+
+    private static void skipFully(@NonNull InputStream in, long count) throws IOException
+    {
+        while (count > 0)
+        {
+            long skipped = in.skip(count);
+
+            if (skipped <= 0)
+            {
+                if (in.read() < 0)
+                {
+                    throw new EOFException();
+                }
+
+                skipped = 1;
+            }
+
+            count -= skipped;
+        }
+    }
+}
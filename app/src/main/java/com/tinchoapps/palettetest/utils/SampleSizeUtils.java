@@ -0,0 +1,83 @@
+package com.tinchoapps.palettetest.utils;
+
+/**
+ * The sample size math of {@link BitmapUtils}, without any Android dependency so it can also be
+ * built and benchmarked on a plain JVM by the benchmarks module.
+ */
+public final class SampleSizeUtils
+{
+    public static final int UNCONSTRAINED = -1;
+
+    private SampleSizeUtils()
+    {
+    }
+
+    /**
+     * See {@link BitmapUtils#computeSampleSize(int, int, int, int)}.
+     */
+    public static int computeSampleSize(int width, int height, int minSideLength, int maxNumOfPixels)
+    {
+        int initialSize = computeInitialSampleSize(width, height, minSideLength, maxNumOfPixels);
+
+        //Rounding up in long, it overflows an int for sizes near Integer.MAX_VALUE
+        return initialSize <= 8
+                ? nextPowerOf2(initialSize)
+                : (int) Math.min(((long) initialSize + 7) / 8 * 8, Integer.MAX_VALUE / 8 * 8);
+    }
+
+    private static int computeInitialSampleSize(int w, int h, int minSideLength, int maxNumOfPixels)
+    {
+        if (maxNumOfPixels == UNCONSTRAINED
+                && minSideLength == UNCONSTRAINED) return 1;
+
+        //The product in long and double, w * h overflows an int on very large images
+        int lowerBound = (maxNumOfPixels == UNCONSTRAINED) ? 1 :
+                (int) Math.ceil(Math.sqrt((double) ((long) w * h) / maxNumOfPixels));
+
+        if (minSideLength == UNCONSTRAINED)
+        {
+            return lowerBound;
+        } else
+        {
+            int sampleSize = Math.min(w / minSideLength, h / minSideLength);
+            return Math.max(sampleSize, lowerBound);
+        }
+    }
+
+    // This computes a sample size which makes the longer side at least
+    // minSideLength long. If that's not possible, return 1.
+    public static int computeSampleSizeLarger(int w, int h, int minSideLength)
+    {
+        int initialSize = Math.max(w / minSideLength, h / minSideLength);
+        if (initialSize <= 1) return 1;
+
+        return initialSize <= 8
+                ? prevPowerOf2(initialSize)
+                : initialSize / 8 * 8;
+    }
+
+    // Returns the next power of two.
+    // Returns the input if it is already power of 2.
+    // Throws IllegalArgumentException if the input is <= 0 or
+    // the answer overflows.
+    public static int nextPowerOf2(int n)
+    {
+        if (n <= 0 || n > (1 << 30)) throw new IllegalArgumentException("n is invalid: " + n);
+        n -= 1;
+        n |= n >> 16;
+        n |= n >> 8;
+        n |= n >> 4;
+        n |= n >> 2;
+        n |= n >> 1;
+        return n + 1;
+    }
+
+    // Returns the previous power of two.
+    // Returns the input if it is already power of 2.
+    // Throws IllegalArgumentException if the input is <= 0
+    public static int prevPowerOf2(int n)
+    {
+        if (n <= 0) throw new IllegalArgumentException();
+        return Integer.highestOneBit(n);
+    }
+}
@@ -27,14 +27,7 @@ public final class Util
     // the answer overflows.
     public static int nextPowerOf2(int n)
     {
-        if (n <= 0 || n > (1 << 30)) throw new IllegalArgumentException("n is invalid: " + n);
-        n -= 1;
-        n |= n >> 16;
-        n |= n >> 8;
-        n |= n >> 4;
-        n |= n >> 2;
-        n |= n >> 1;
-        return n + 1;
+        return SampleSizeUtils.nextPowerOf2(n);
     }
 
     // Returns the previous power of two.
@@ -42,8 +35,7 @@ public final class Util
     // Throws IllegalArgumentException if the input is <= 0
     public static int prevPowerOf2(int n)
     {
-        if (n <= 0) throw new IllegalArgumentException();
-        return Integer.highestOneBit(n);
+        return SampleSizeUtils.prevPowerOf2(n);
     }
 
     // Throws AssertionError if the input is false.
@@ -0,0 +1,126 @@
+package com.tinchoapps.palettetest;
+
+import android.database.Cursor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+/**
+ * An in-memory Cursor over rows of values, for code that reads cursors without a database.
+ * Only moving around and reading values is supported.
+ */
+public final class FakeCursor implements InvocationHandler
+{
+    private final String[] columns;
+    private final Object[][] rows;
+    private int position = -1;
+    private boolean closed;
+
+    private FakeCursor(String[] columns, Object[][] rows)
+    {
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    /**
+     * @param rows the values of each row, in the order of columns; Numbers, Strings or null
+     */
+    public static Cursor create(String[] columns, Object[][] rows)
+    {
+        return (Cursor) Proxy.newProxyInstance(FakeCursor.class.getClassLoader(), new Class<?>[]{Cursor.class}, new FakeCursor(columns, rows));
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args)
+    {
+        String name = method.getName();
+
+        switch (name)
+        {
+            case "getCount":
+                return rows.length;
+            case "getPosition":
+                return position;
+            case "getColumnCount":
+                return columns.length;
+            case "getColumnNames":
+                return columns.clone();
+            case "getColumnIndex":
+                return Arrays.asList(columns).indexOf(args[0]);
+            case "getColumnName":
+                return columns[(Integer) args[0]];
+            case "moveToFirst":
+                return moveToPosition(0);
+            case "moveToLast":
+                return moveToPosition(rows.length - 1);
+            case "moveToNext":
+                return moveToPosition(position + 1);
+            case "moveToPrevious":
+                return moveToPosition(position - 1);
+            case "moveToPosition":
+                return moveToPosition((Integer) args[0]);
+            case "move":
+                return moveToPosition(position + (Integer) args[0]);
+            case "isFirst":
+                return rows.length > 0 && position == 0;
+            case "isLast":
+                return rows.length > 0 && position == rows.length - 1;
+            case "isBeforeFirst":
+                return rows.length == 0 || position < 0;
+            case "isAfterLast":
+                return rows.length == 0 || position >= rows.length;
+            case "isNull":
+                return getValue(args) == null;
+            case "getString":
+                Object value = getValue(args);
+                return value != null ? value.toString() : null;
+            case "getLong":
+                return getNumber(args).longValue();
+            case "getInt":
+                return getNumber(args).intValue();
+            case "getShort":
+                return getNumber(args).shortValue();
+            case "getFloat":
+                return getNumber(args).floatValue();
+            case "getDouble":
+                return getNumber(args).doubleValue();
+            case "close":
+                closed = true;
+                return null;
+            case "isClosed":
+                return closed;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "FakeCursor" + Arrays.toString(columns);
+            default:
+                throw new UnsupportedOperationException(name);
+        }
+    }
+
+    private boolean moveToPosition(int newPosition)
+    {
+        position = Math.max(-1, Math.min(rows.length, newPosition));
+        return position >= 0 && position < rows.length;
+    }
+
+    private Object getValue(Object[] args)
+    {
+        if (closed || position < 0 || position >= rows.length)
+        {
+            throw new IllegalStateException("No row at " + position);
+        }
+
+        return rows[position][(Integer) args[0]];
+    }
+
+    private Number getNumber(Object[] args)
+    {
+        Object value = getValue(args);
+        return value != null ? (Number) value : 0;
+    }
+}
@@ -0,0 +1,344 @@
+package com.tinchoapps.palettetest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GalleryDiffTest
+{
+    private static final int WINDOW_SIZE = 20;
+    private static final int RANDOM_RUNS = 2000;
+
+    @Test
+    public void sameSnapshotIsEmpty()
+    {
+        List<Long> ids = createIds(100);
+        GalleryDiff diff = GalleryDiff.compute(window(ids, 40), ids.size(), window(ids, 40), ids.size());
+
+        assertTrue(diff.isEmpty());
+        assertEquals(45, diff.getNewPosition(ids.get(45)));
+        assertEquals(GalleryDiff.POSITION_UNKNOWN, diff.getNewPosition(ids.get(10)));
+    }
+
+    @Test
+    public void insertionAndRemovalThatKeepTheCount()
+    {
+        List<Long> oldIds = createIds(100);
+        List<Long> newIds = new ArrayList<>(oldIds);
+        long removedId = newIds.remove(45);
+        newIds.add(50, 5000L);
+
+        GalleryDiff diff = GalleryDiff.compute(window(oldIds, 40), oldIds.size(), window(newIds, 40), newIds.size());
+
+        assertEquals(1, diff.getRemovedCount());
+        assertEquals(1, diff.getInsertedCount());
+        assertEquals(GalleryDiff.POSITION_REMOVED, diff.getNewPosition(removedId));
+        assertEquals(50, diff.getNewPosition(5000L));
+        assertEquals(45, diff.getNewPosition(oldIds.get(46)));
+        assertEquals(51, diff.getNewPosition(oldIds.get(51)));
+        assertFalse(diff.isEmpty());
+        assertEquals(Arrays.asList("removed 45 " + removedId, "inserted 50 5000"), events(diff));
+    }
+
+    @Test
+    public void removalsFromTheLastThenInsertionsFromTheFirst()
+    {
+        List<Long> oldIds = createIds(100);
+        List<Long> newIds = new ArrayList<>(oldIds);
+        newIds.remove(50);
+        newIds.remove(42);
+        newIds.add(44, 5000L);
+        newIds.add(48, 5001L);
+
+        GalleryDiff diff = GalleryDiff.compute(window(oldIds, 40), oldIds.size(), window(newIds, 40), newIds.size());
+
+        assertEquals(Arrays.asList("removed 50 1050", "removed 42 1042", "inserted 44 5000", "inserted 48 5001"), events(diff));
+    }
+
+    @Test
+    public void movedRowIsOneMove()
+    {
+        List<Long> oldIds = createIds(100);
+        List<Long> newIds = new ArrayList<>(oldIds);
+        newIds.add(55, newIds.remove(45));
+
+        GalleryDiff diff = GalleryDiff.compute(window(oldIds, 40), oldIds.size(), window(newIds, 40), newIds.size());
+
+        assertEquals(0, diff.getRemovedCount());
+        assertEquals(0, diff.getInsertedCount());
+        assertEquals(1, diff.getMovedCount());
+        assertEquals(Arrays.asList("moved 45 55 1045"), events(diff));
+    }
+
+    @Test
+    public void rowsShiftedOutOfTheWindowAreUnknown()
+    {
+        List<Long> oldIds = createIds(100);
+        List<Long> newIds = new ArrayList<>(oldIds);
+        newIds.add(0, 5000L);
+        newIds.add(0, 5001L);
+        newIds.add(0, 5002L);
+
+        GalleryDiff diff = GalleryDiff.compute(window(oldIds, 40), oldIds.size(), window(newIds, 40), newIds.size());
+
+        assertEquals(0, diff.getRemovedCount());
+        assertEquals(0, diff.getInsertedCount());
+        assertEquals(GalleryDiff.POSITION_UNKNOWN, diff.getNewPosition(oldIds.get(59)));
+        assertEquals(43, diff.getNewPosition(oldIds.get(40)));
+        assertFalse("Shifted rows change positions", diff.isEmpty());
+        assertEquals("Shifted rows are not moves", 0, diff.getMovedCount());
+        assertTrue(events(diff).isEmpty());
+    }
+
+    @Test
+    public void removalAtTheEndOfTheGallery()
+    {
+        List<Long> oldIds = createIds(100);
+        List<Long> newIds = new ArrayList<>(oldIds);
+        long removedId = newIds.remove(99);
+
+        GalleryDiff diff = GalleryDiff.compute(window(oldIds, 80), oldIds.size(), window(newIds, 80), newIds.size());
+
+        assertEquals(1, diff.getRemovedCount());
+        assertEquals(GalleryDiff.POSITION_REMOVED, diff.getNewPosition(removedId));
+        assertEquals(Arrays.asList("removed 99 " + removedId), events(diff));
+    }
+
+    @Test
+    public void windowsWithoutCommonRows()
+    {
+        List<Long> oldIds = createIds(100);
+        GalleryDiff diff = GalleryDiff.compute(window(oldIds, 0), oldIds.size(), window(oldIds, 60), oldIds.size());
+
+        assertEquals(0, diff.getRemovedCount());
+        assertEquals(0, diff.getInsertedCount());
+        assertEquals(GalleryDiff.POSITION_UNKNOWN, diff.getNewPosition(oldIds.get(0)));
+
+        //Windows of whole snapshots see every change even without common rows
+        List<Long> newIds = createIds(1);
+        newIds.set(0, 5000L);
+        GalleryDiff whole = GalleryDiff.compute(window(oldIds.subList(0, 1), 0), 1, window(newIds, 0), 1);
+
+        assertEquals(1, whole.getRemovedCount());
+        assertEquals(1, whole.getInsertedCount());
+    }
+
+    @Test
+    public void agreesWithTheSnapshots()
+    {
+        Random random = new Random(1);
+
+        for (int run = 0; run < RANDOM_RUNS; run++)
+        {
+            List<Long> oldIds = createIds(1 + random.nextInt(80));
+            List<Long> newIds = new ArrayList<>(oldIds);
+            long nextId = 10000;
+
+            for (int change = random.nextInt(6); change > 0; change--)
+            {
+                if (random.nextBoolean() && !newIds.isEmpty())
+                {
+                    newIds.remove(random.nextInt(newIds.size()));
+                } else
+                {
+                    newIds.add(random.nextInt(newIds.size() + 1), nextId++);
+                }
+            }
+
+            GalleryIndex oldWindow = window(oldIds, randomStart(random, oldIds.size()));
+            GalleryIndex newWindow = window(newIds, randomStart(random, newIds.size()));
+            GalleryDiff diff = GalleryDiff.compute(oldWindow, oldIds.size(), newWindow, newIds.size());
+            int removed = 0;
+            int inserted = 0;
+
+            for (int position = oldWindow.getStart(); position < oldWindow.getStart() + oldWindow.size(); position++)
+            {
+                long id = oldWindow.getId(position);
+                int newPosition = diff.getNewPosition(id);
+
+                if (newPosition == GalleryDiff.POSITION_REMOVED)
+                {
+                    assertFalse("Removed " + id + " is there", newIds.contains(id));
+                    removed++;
+                } else if (newPosition != GalleryDiff.POSITION_UNKNOWN)
+                {
+                    assertEquals(newIds.indexOf(id), newPosition);
+                }
+            }
+
+            for (int position = newWindow.getStart(); position < newWindow.getStart() + newWindow.size(); position++)
+            {
+                long id = newWindow.getId(position);
+                assertEquals(position, diff.getNewPosition(id));
+
+                if (!oldIds.contains(id))
+                {
+                    inserted++;
+                }
+            }
+
+            assertEquals(removed, diff.getRemovedCount());
+            assertTrue(diff.getInsertedCount() <= inserted);
+
+            if (oldWindow.size() == oldIds.size() && newWindow.size() == newIds.size())
+            {
+                //Whole snapshots, nothing is out of sight
+                assertEquals(oldIds.size() - (newIds.size() - inserted), removed);
+                assertEquals(inserted, diff.getInsertedCount());
+            }
+        }
+    }
+
+    @Test
+    public void replayingTheEventsGivesTheNewSnapshot()
+    {
+        Random random = new Random(2);
+
+        for (int run = 0; run < RANDOM_RUNS; run++)
+        {
+            //Whole snapshots, so moved rows can't leave the windows
+            List<Long> oldIds = createIds(1 + random.nextInt(WINDOW_SIZE));
+            List<Long> newIds = new ArrayList<>(oldIds);
+            long nextId = 10000;
+
+            for (int change = random.nextInt(6); change > 0; change--)
+            {
+                int kind = random.nextInt(3);
+
+                if (kind == 0 && !newIds.isEmpty())
+                {
+                    newIds.remove(random.nextInt(newIds.size()));
+                } else if (kind == 1 && !newIds.isEmpty())
+                {
+                    long id = newIds.remove(random.nextInt(newIds.size()));
+                    newIds.add(random.nextInt(newIds.size() + 1), id);
+                } else if (newIds.size() < WINDOW_SIZE)
+                {
+                    newIds.add(random.nextInt(newIds.size() + 1), nextId++);
+                }
+            }
+
+            GalleryDiff diff = GalleryDiff.compute(window(oldIds, 0), oldIds.size(), window(newIds, 0), newIds.size());
+            final List<Long> replayed = new ArrayList<>(oldIds);
+            final List<long[]> landings = new ArrayList<>();
+
+            diff.dispatch(new GalleryDiff.Callback()
+            {
+                @Override
+                public void onRemoved(int oldPosition, long id)
+                {
+                    assertEquals(id, (long) replayed.remove(oldPosition));
+                }
+
+                @Override
+                public void onInserted(int newPosition, long id)
+                {
+                    landings.add(new long[]{newPosition, id});
+                }
+
+                @Override
+                public void onMoved(int oldPosition, int newPosition, long id)
+                {
+                    landings.add(new long[]{newPosition, id, oldPosition});
+                }
+            });
+
+            //Moved rows leave their old position, then every row lands on its new one
+            for (int i = landings.size() - 1; i >= 0; i--)
+            {
+                if (landings.get(i).length > 2)
+                {
+                    replayed.remove(Long.valueOf(landings.get(i)[1]));
+                }
+            }
+
+            Collections.sort(landings, new Comparator<long[]>()
+            {
+                @Override
+                public int compare(final long[] lhs, final long[] rhs)
+                {
+                    return lhs[0] < rhs[0] ? -1 : (lhs[0] == rhs[0] ? 0 : 1);
+                }
+            });
+
+            for (long[] landing : landings)
+            {
+                replayed.add((int) landing[0], landing[1]);
+            }
+
+            assertEquals(newIds, replayed);
+            assertEquals(newIds.equals(oldIds), diff.isEmpty());
+        }
+    }
+
+    private static int randomStart(Random random, int count)
+    {
+        return Math.max(0, Math.min(random.nextInt(count + 1) - WINDOW_SIZE / 2, count - WINDOW_SIZE));
+    }
+
+    // The events of the diff in the order they are dispatched.
+    private static List<String> events(GalleryDiff diff)
+    {
+        final List<String> events = new ArrayList<>();
+
+        diff.dispatch(new GalleryDiff.Callback()
+        {
+            @Override
+            public void onRemoved(int oldPosition, long id)
+            {
+                events.add("removed " + oldPosition + " " + id);
+            }
+
+            @Override
+            public void onInserted(int newPosition, long id)
+            {
+                events.add("inserted " + newPosition + " " + id);
+            }
+
+            @Override
+            public void onMoved(int oldPosition, int newPosition, long id)
+            {
+                events.add("moved " + oldPosition + " " + newPosition + " " + id);
+            }
+        });
+
+        return events;
+    }
+
+    private static List<Long> createIds(int count)
+    {
+        List<Long> ids = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++)
+        {
+            ids.add((long) (1000 + i));
+        }
+
+        return ids;
+    }
+
+    // The window of WINDOW_SIZE rows of the snapshot ids from start, as GalleryDataSource queries it.
+    private static GalleryIndex window(List<Long> ids, int start)
+    {
+        int size = Math.max(0, Math.min(WINDOW_SIZE, ids.size() - start));
+        Object[][] rows = new Object[size][];
+
+        for (int i = 0; i < size; i++)
+        {
+            long id = ids.get(start + i);
+            rows[i] = new Object[]{id, "/sdcard/DCIM/Camera/IMG_" + id + ".jpg", "IMG_" + id + ".jpg", "Camera", 1024L, 1400000000L + id, 4000,
+                    3000, "image/jpeg", 1400000000000L - id * 1000L};
+        }
+
+        return GalleryIndex.fromCursor(FakeCursor.create(GalleryIndex.PROJECTION, rows), start);
+    }
+}
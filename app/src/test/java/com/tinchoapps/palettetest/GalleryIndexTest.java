@@ -0,0 +1,189 @@
+package com.tinchoapps.palettetest;
+
+import android.database.Cursor;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GalleryIndexTest
+{
+    private static final int IMAGE_COUNT = 10000;
+    private static final String[] BUCKETS = {"Camera", "Screenshots", "WhatsApp Images", "Download"};
+    private static final int LOOKUPS = 1000000;
+    private static final int MEASURED_COPIES = 10;
+
+    @Test
+    public void readsEveryColumn()
+    {
+        Object[][] rows = createRows(IMAGE_COUNT);
+        GalleryIndex index = GalleryIndex.fromCursor(FakeCursor.create(GalleryIndex.PROJECTION, rows), 0);
+
+        assertEquals(IMAGE_COUNT, index.size());
+
+        for (int position = 0; position < IMAGE_COUNT; position++)
+        {
+            Object[] row = rows[position];
+            GalleryItem item = index.getItem(position);
+
+            assertEquals(row[0], item.getId());
+            assertEquals(row[1], item.getPath());
+            assertEquals(row[2], item.getDisplayName());
+            assertEquals(row[3], item.getBucketDisplayName());
+            assertEquals(row[4], item.getSize());
+            assertEquals(row[5], item.getDateModified());
+            assertEquals(row[6], item.getWidth());
+            assertEquals(row[7], item.getHeight());
+            assertEquals(row[8], item.getMimeType());
+            assertEquals(row[0], index.getId(position));
+            assertEquals(row[1], index.getPath(position));
+            assertEquals(row[5], index.getDateModified(position));
+            assertEquals(row[9] != null ? (Long) row[9] : GalleryIndex.DATE_TAKEN_UNKNOWN, index.getDateTaken(position));
+        }
+    }
+
+    @Test
+    public void readsReversedCursorsInOrder()
+    {
+        Object[][] rows = createRows(50);
+        Object[][] reversedRows = new Object[rows.length][];
+
+        for (int i = 0; i < rows.length; i++)
+        {
+            reversedRows[i] = rows[rows.length - 1 - i];
+        }
+
+        GalleryIndex index = GalleryIndex.fromCursor(FakeCursor.create(GalleryIndex.PROJECTION, reversedRows), 200, true);
+
+        assertEquals(rows.length, index.size());
+
+        for (int i = 0; i < rows.length; i++)
+        {
+            assertEquals(rows[i][0], index.getId(200 + i));
+        }
+    }
+
+    @Test
+    public void internsRepeatedStrings()
+    {
+        GalleryIndex index = GalleryIndex.fromCursor(FakeCursor.create(GalleryIndex.PROJECTION, createRows(100)), 0);
+
+        for (int position = BUCKETS.length; position < index.size(); position++)
+        {
+            GalleryItem item = index.getItem(position);
+            GalleryItem sameBucket = index.getItem(position % BUCKETS.length);
+
+            assertSame(sameBucket.getBucketDisplayName(), item.getBucketDisplayName());
+            assertSame(sameBucket.getMimeType(), item.getMimeType());
+        }
+    }
+
+    @Test
+    public void positionsStartAtStart()
+    {
+        Object[][] rows = createRows(50);
+        GalleryIndex index = GalleryIndex.fromCursor(FakeCursor.create(GalleryIndex.PROJECTION, rows), 200);
+
+        assertEquals(200, index.getStart());
+        assertFalse(index.contains(199));
+        assertTrue(index.contains(200));
+        assertTrue(index.contains(249));
+        assertFalse(index.contains(250));
+        assertEquals(rows[10][0], index.getId(210));
+        assertEquals(210, index.indexOfId((Long) rows[10][0], 210));
+        assertEquals(210, index.indexOfId((Long) rows[10][0], 0));
+        assertEquals(-1, index.indexOfId(-5, 210));
+    }
+
+    @Test
+    public void nullColumnsAreKept()
+    {
+        Object[][] rows = createRows(1);
+        rows[0][2] = null;
+        rows[0][3] = null;
+        rows[0][8] = null;
+        GalleryItem item = GalleryIndex.fromCursor(FakeCursor.create(GalleryIndex.PROJECTION, rows), 0).getItem(0);
+
+        assertEquals(null, item.getDisplayName());
+        assertEquals(null, item.getBucketDisplayName());
+        assertEquals(null, item.getMimeType());
+    }
+
+    @Test
+    public void memoryAndGetItemLatencyOf10kImages()
+    {
+        Object[][] rows = createRows(IMAGE_COUNT);
+        Cursor cursor = FakeCursor.create(GalleryIndex.PROJECTION, rows);
+
+        //The strings are shared with the rows, so this is what the indexes themselves add
+        GalleryIndex[] copies = new GalleryIndex[MEASURED_COPIES];
+        long before = usedMemory();
+
+        for (int i = 0; i < copies.length; i++)
+        {
+            copies[i] = GalleryIndex.fromCursor(cursor, 0);
+        }
+
+        long bytesPerImage = (usedMemory() - before) / ((long) IMAGE_COUNT * copies.length);
+        GalleryIndex index = copies[0];
+
+        Random random = new Random(1);
+        long checksum = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < LOOKUPS; i++)
+        {
+            checksum += index.getItem(random.nextInt(IMAGE_COUNT)).getSize();
+        }
+
+        long nanosPerItem = (System.nanoTime() - start) / LOOKUPS;
+
+        System.out.println("GalleryIndex: " + bytesPerImage + " bytes per image, " + nanosPerItem + " ns per getItem (" + checksum + ")");
+        assertEquals(IMAGE_COUNT, index.size());
+        //Ten columns of primitives and references, a Bundle of strings per page was kilobytes
+        assertTrue(bytesPerImage + " bytes per image", bytesPerImage > 0 && bytesPerImage < 256);
+        assertTrue(nanosPerItem + " ns per getItem", nanosPerItem < 5000);
+    }
+
+    private static Object[][] createRows(int count)
+    {
+        Object[][] rows = new Object[count][];
+
+        for (int i = 0; i < count; i++)
+        {
+            String bucket = BUCKETS[i % BUCKETS.length];
+            //New instances each row, as a cursor returns them
+            rows[i] = new Object[]{(long) (1000 + i), "/sdcard/DCIM/" + bucket + "/IMG_" + i + ".jpg", "IMG_" + i + ".jpg", new String(bucket),
+                    (long) (i * 1024 + 1), 1400000000L + i, 4000, 3000, new String("image/jpeg"),
+                    i % 10 != 9 ? 1400000000000L - i * 1000L : null};
+        }
+
+        return rows;
+    }
+
+    // Used heap once collections stop freeing anything.
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+
+        for (int i = 0; i < 20; i++)
+        {
+            System.gc();
+            long nowUsed = runtime.totalMemory() - runtime.freeMemory();
+
+            if (nowUsed >= used)
+            {
+                break;
+            }
+
+            used = nowUsed;
+        }
+
+        return used;
+    }
+}
@@ -0,0 +1,172 @@
+package com.tinchoapps.palettetest.image;
+
+import com.tinchoapps.palettetest.FakeCursor;
+import com.tinchoapps.palettetest.utils.ColorUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ColorIndexTest
+{
+    private static final String[] COLUMNS = {"image_id", "path", "dark_vibrant_rgb", "dark_muted_rgb"};
+    private static final float EPSILON = 1e-3f;
+
+    @Test
+    public void matchesBruteForce()
+    {
+        Random random = new Random(1);
+        Object[][] rows = createRows(5000, random);
+        ColorIndex index = ColorIndex.build(FakeCursor.create(COLUMNS, rows));
+
+        for (int query = 0; query < 500; query++)
+        {
+            int rgb = random.nextInt() | 0xff000000;
+            int count = 1 + random.nextInt(20);
+            List<ColorIndex.Match> matches = index.findClosest(rgb, count);
+            float[] expected = findClosestBruteForce(rows, rgb, count);
+
+            assertEquals(expected.length, matches.size());
+
+            for (int i = 0; i < expected.length; i++)
+            {
+                assertEquals("Query " + Integer.toHexString(rgb) + " match " + i, expected[i], matches.get(i).getDistance(), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void returnsEachImageOnce()
+    {
+        //Both swatches of every image are the same color
+        Object[][] rows = new Object[100][];
+
+        for (int i = 0; i < rows.length; i++)
+        {
+            rows[i] = new Object[]{(long) i, "/image" + i, 0xff1a3c8c + i, 0xff1a3c8c + i};
+        }
+
+        List<ColorIndex.Match> matches = ColorIndex.build(FakeCursor.create(COLUMNS, rows)).findClosest(0xff1a3c8c, 10);
+
+        assertEquals(10, matches.size());
+
+        for (int i = 0; i < matches.size(); i++)
+        {
+            for (int j = i + 1; j < matches.size(); j++)
+            {
+                assertTrue(matches.get(i).getImageId() != matches.get(j).getImageId());
+            }
+        }
+
+        assertEquals(0, matches.get(0).getImageId());
+        assertEquals("/image0", matches.get(0).getPath());
+        assertEquals(0f, matches.get(0).getDistance(), EPSILON);
+    }
+
+    @Test
+    public void skipsNullSwatches()
+    {
+        Object[][] rows = {
+                {1L, "/a", null, null},
+                {2L, "/b", 0xff2e7d32, null},
+                {3L, "/c", null, 0xff6a1b9a}
+        };
+        ColorIndex index = ColorIndex.build(FakeCursor.create(COLUMNS, rows));
+
+        assertEquals(2, index.size());
+        assertEquals(2, index.findClosest(0xff000000, 5).size());
+    }
+
+    @Test
+    public void emptyIndexFindsNothing()
+    {
+        ColorIndex index = ColorIndex.build(FakeCursor.create(COLUMNS, new Object[0][]));
+
+        assertEquals(0, index.size());
+        assertTrue(index.findClosest(0xff1a3c8c, 5).isEmpty());
+    }
+
+    @Test
+    public void topKOver100kImagesInMilliseconds()
+    {
+        Random random = new Random(2);
+        ColorIndex index = ColorIndex.build(FakeCursor.create(COLUMNS, createRows(100000, random)));
+        int queries = 1000;
+
+        //Warm up the JIT
+        for (int i = 0; i < queries; i++)
+        {
+            index.findClosest(random.nextInt() | 0xff000000, 20);
+        }
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < queries; i++)
+        {
+            index.findClosest(random.nextInt() | 0xff000000, 20);
+        }
+
+        double millisPerQuery = (System.nanoTime() - start) / 1e6 / queries;
+
+        System.out.println(String.format("ColorIndex: %.3f ms per top 20 query over 100k images", millisPerQuery));
+        assertTrue(millisPerQuery + " ms per query", millisPerQuery < 10);
+    }
+
+    private static Object[][] createRows(int count, Random random)
+    {
+        Object[][] rows = new Object[count][];
+
+        for (int i = 0; i < count; i++)
+        {
+            rows[i] = new Object[]{(long) i, "/image" + i, randomSwatch(random), randomSwatch(random)};
+        }
+
+        return rows;
+    }
+
+    private static Integer randomSwatch(Random random)
+    {
+        return random.nextInt(8) == 0 ? null : random.nextInt() | 0xff000000;
+    }
+
+    // Distances of the count images closest to rgb by their closest swatch, closest first.
+    private static float[] findClosestBruteForce(Object[][] rows, int rgb, int count)
+    {
+        float[] query = new float[3];
+        float[] lab = new float[3];
+        float[] distances = new float[rows.length];
+        int images = 0;
+
+        ColorUtils.rgbToLab(rgb, query);
+
+        for (Object[] row : rows)
+        {
+            float closest = Float.MAX_VALUE;
+
+            for (int column = 2; column < row.length; column++)
+            {
+                if (row[column] != null)
+                {
+                    ColorUtils.rgbToLab((Integer) row[column], lab);
+                    float dl = lab[0] - query[0];
+                    float da = lab[1] - query[1];
+                    float db = lab[2] - query[2];
+                    closest = Math.min(closest, (float) Math.sqrt(dl * dl + da * da + db * db));
+                }
+            }
+
+            if (closest != Float.MAX_VALUE)
+            {
+                distances[images++] = closest;
+            }
+        }
+
+        distances = Arrays.copyOf(distances, images);
+        Arrays.sort(distances);
+        return Arrays.copyOf(distances, Math.min(count, images));
+    }
+}
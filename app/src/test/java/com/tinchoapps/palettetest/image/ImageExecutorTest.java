@@ -0,0 +1,178 @@
+package com.tinchoapps.palettetest.image;
+
+import android.support.annotation.NonNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ImageExecutorTest
+{
+    private ManualScheduler scheduler;
+    private ImageExecutor executor;
+    private List<String> ran;
+
+    @Before
+    public void setUp()
+    {
+        scheduler = new ManualScheduler();
+        executor = new ImageExecutor(scheduler);
+        ran = new ArrayList<>();
+        ImageExecutor.setInstanceForTesting(executor);
+    }
+
+    @After
+    public void tearDown()
+    {
+        ImageExecutor.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void injectedInstanceIsShared()
+    {
+        assertSame(executor, ImageExecutor.getInstance());
+    }
+
+    @Test
+    public void visiblePageRunsFirst()
+    {
+        ImageExecutor.getInstance().execute(record("prefetch"), ImageExecutor.PRIORITY_PREFETCH);
+        ImageExecutor.getInstance().forPriority(ImageExecutor.PRIORITY_OFFSCREEN).execute(record("offscreen"));
+        ImageExecutor.getInstance().forPriority(ImageExecutor.PRIORITY_VISIBLE).execute(record("visible"));
+
+        scheduler.runAll();
+
+        assertEquals(Arrays.asList("visible", "offscreen", "prefetch"), ran);
+    }
+
+    @Test
+    public void samePriorityRunsInSubmissionOrder()
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            executor.execute(record("page " + i), ImageExecutor.PRIORITY_OFFSCREEN);
+        }
+
+        scheduler.runAll();
+
+        assertEquals(Arrays.asList("page 0", "page 1", "page 2", "page 3", "page 4"), ran);
+    }
+
+    @Test
+    public void pageThatBecomesVisibleMovesAhead()
+    {
+        ImageExecutor.PriorityExecutor left = executor.forPriority(ImageExecutor.PRIORITY_OFFSCREEN);
+        ImageExecutor.PriorityExecutor right = executor.forPriority(ImageExecutor.PRIORITY_OFFSCREEN);
+        ImageExecutor.PriorityExecutor current = executor.forPriority(ImageExecutor.PRIORITY_VISIBLE);
+        left.execute(record("left"));
+        right.execute(record("right"));
+        current.execute(record("current"));
+
+        //Swiped to the right page before anything ran
+        current.setPriority(ImageExecutor.PRIORITY_OFFSCREEN);
+        right.setPriority(ImageExecutor.PRIORITY_VISIBLE);
+        scheduler.runAll();
+
+        assertEquals(Arrays.asList("right", "left", "current"), ran);
+    }
+
+    @Test
+    public void destroyedPageNeverRuns()
+    {
+        ImageExecutor.PriorityExecutor destroyed = executor.forPriority(ImageExecutor.PRIORITY_OFFSCREEN);
+        ImageExecutor.PriorityExecutor kept = executor.forPriority(ImageExecutor.PRIORITY_OFFSCREEN);
+        destroyed.execute(record("destroyed"));
+        kept.execute(record("kept"));
+
+        destroyed.cancel();
+
+        assertEquals(1, scheduler.queue.size());
+        scheduler.runAll();
+        assertEquals(Collections.singletonList("kept"), ran);
+    }
+
+    @Test
+    public void cancelledTaskThatWasDequeuedIsSkipped()
+    {
+        ImageExecutor.Task task = executor.execute(record("cancelled"), ImageExecutor.PRIORITY_VISIBLE);
+        //A worker took it just before the cancel
+        scheduler.queue.remove(task);
+
+        executor.cancel(task);
+        task.run();
+
+        assertTrue(task.isCancelled());
+        assertTrue(ran.isEmpty());
+    }
+
+    @Test
+    public void startedTaskKeepsItsPriority()
+    {
+        ImageExecutor.PriorityExecutor page = executor.forPriority(ImageExecutor.PRIORITY_OFFSCREEN);
+        page.execute(record("page"));
+        scheduler.runAll();
+
+        page.setPriority(ImageExecutor.PRIORITY_VISIBLE);
+
+        assertTrue(scheduler.queue.isEmpty());
+        assertEquals(Collections.singletonList("page"), ran);
+    }
+
+    private Runnable record(final String name)
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ran.add(name);
+            }
+        };
+    }
+
+    // Runs nothing until asked to, then the queued tasks one by one in their order.
+    private static final class ManualScheduler implements ImageExecutor.Scheduler
+    {
+        final List<ImageExecutor.Task> queue = new ArrayList<>();
+
+        @Override
+        public void schedule(@NonNull ImageExecutor.Task task)
+        {
+            queue.add(task);
+        }
+
+        @Override
+        public void reschedule(@NonNull ImageExecutor.Task task, int priority)
+        {
+            if (queue.remove(task))
+            {
+                task.setPriority(priority);
+                queue.add(task);
+            }
+        }
+
+        @Override
+        public void remove(@NonNull ImageExecutor.Task task)
+        {
+            queue.remove(task);
+        }
+
+        void runAll()
+        {
+            while (!queue.isEmpty())
+            {
+                ImageExecutor.Task next = Collections.min(queue);
+                queue.remove(next);
+                next.run();
+            }
+        }
+    }
+}
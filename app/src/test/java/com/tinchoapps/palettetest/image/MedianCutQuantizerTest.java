@@ -0,0 +1,161 @@
+package com.tinchoapps.palettetest.image;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MedianCutQuantizerTest
+{
+    private static final int MAX_COLOR_COUNT = 16;
+    private static final int PIXEL_COUNT = 112 * 112;
+    //Dark and saturated enough not to be ignored
+    private static final int[] CLUSTER_CENTERS = {0xff1a3c8c, 0xff2e7d32, 0xff6a1b9a, 0xff00838f, 0xffad1457, 0xff283593};
+
+    @Test
+    public void keepsFewColorsAsTheyAre()
+    {
+        int[] pixels = new int[PIXEL_COUNT];
+
+        for (int i = 0; i < PIXEL_COUNT; i++)
+        {
+            pixels[i] = i % 3 == 0 ? 0xff1a3c8c : 0xff2e7d32;
+        }
+
+        int[] colors = new int[MAX_COLOR_COUNT];
+        int[] populations = new int[MAX_COLOR_COUNT];
+        int count = new MedianCutQuantizer().quantize(pixels, PIXEL_COUNT, MAX_COLOR_COUNT, colors, populations);
+
+        assertEquals(2, count);
+        assertEquals(PIXEL_COUNT, populations[0] + populations[1]);
+
+        for (int i = 0; i < count; i++)
+        {
+            int expected = colors[i] == approximate(0xff1a3c8c) ? (PIXEL_COUNT + 2) / 3 : PIXEL_COUNT - (PIXEL_COUNT + 2) / 3;
+            assertEquals(expected, populations[i]);
+        }
+    }
+
+    @Test
+    public void ignoresBlackAndWhite()
+    {
+        int[] pixels = new int[PIXEL_COUNT];
+
+        for (int i = 0; i < PIXEL_COUNT; i++)
+        {
+            pixels[i] = i % 2 == 0 ? 0xff000000 : 0xffffffff;
+        }
+
+        int count = new MedianCutQuantizer().quantize(pixels, PIXEL_COUNT, MAX_COLOR_COUNT, new int[MAX_COLOR_COUNT], new int[MAX_COLOR_COUNT]);
+
+        assertEquals(0, count);
+    }
+
+    @Test
+    public void findsEveryCluster()
+    {
+        int[] pixels = createClusters(new Random(1));
+        int[] colors = new int[MAX_COLOR_COUNT];
+        int[] populations = new int[MAX_COLOR_COUNT];
+        int count = new MedianCutQuantizer().quantize(pixels, PIXEL_COUNT, MAX_COLOR_COUNT, colors, populations);
+
+        assertTrue(count > 0 && count <= MAX_COLOR_COUNT);
+
+        int population = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            population += populations[i];
+            assertEquals(0xff000000, colors[i] & 0xff000000);
+        }
+
+        assertTrue(population <= PIXEL_COUNT);
+
+        for (int center : CLUSTER_CENTERS)
+        {
+            int closest = Integer.MAX_VALUE;
+
+            for (int i = 0; i < count; i++)
+            {
+                closest = Math.min(closest, distance(center, colors[i]));
+            }
+
+            assertTrue("No color near " + Integer.toHexString(center), closest <= 24);
+        }
+    }
+
+    @Test
+    public void reusedBuffersGiveTheSameResult()
+    {
+        Random random = new Random(2);
+        int[] first = createClusters(random);
+        int[] second = createClusters(random);
+        MedianCutQuantizer reused = new MedianCutQuantizer();
+        int[] colors = new int[MAX_COLOR_COUNT];
+        int[] populations = new int[MAX_COLOR_COUNT];
+
+        reused.quantize(first, PIXEL_COUNT, MAX_COLOR_COUNT, colors, populations);
+        int count = reused.quantize(second, PIXEL_COUNT, MAX_COLOR_COUNT, colors, populations);
+
+        int[] freshColors = new int[MAX_COLOR_COUNT];
+        int[] freshPopulations = new int[MAX_COLOR_COUNT];
+        int freshCount = new MedianCutQuantizer().quantize(second, PIXEL_COUNT, MAX_COLOR_COUNT, freshColors, freshPopulations);
+
+        assertEquals(freshCount, count);
+        assertArrayEquals(Arrays.copyOf(freshColors, freshCount), Arrays.copyOf(colors, count));
+        assertArrayEquals(Arrays.copyOf(freshPopulations, freshCount), Arrays.copyOf(populations, count));
+    }
+
+    @Test
+    public void onlyReadsPixelCountPixels()
+    {
+        int[] pixels = new int[PIXEL_COUNT * 2];
+        Arrays.fill(pixels, 0, PIXEL_COUNT, 0xff1a3c8c);
+        Arrays.fill(pixels, PIXEL_COUNT, pixels.length, 0xff2e7d32);
+        int[] populations = new int[MAX_COLOR_COUNT];
+
+        int count = new MedianCutQuantizer().quantize(pixels, PIXEL_COUNT, MAX_COLOR_COUNT, new int[MAX_COLOR_COUNT], populations);
+
+        assertEquals(1, count);
+        assertEquals(PIXEL_COUNT, populations[0]);
+    }
+
+    // Pixels spread around the cluster centers by up to 8 per channel.
+    private static int[] createClusters(Random random)
+    {
+        int[] pixels = new int[PIXEL_COUNT];
+
+        for (int i = 0; i < PIXEL_COUNT; i++)
+        {
+            int center = CLUSTER_CENTERS[random.nextInt(CLUSTER_CENTERS.length)];
+            pixels[i] = 0xff000000 | (jitter(center >> 16, random) << 16) | (jitter(center >> 8, random) << 8) | jitter(center, random);
+        }
+
+        return pixels;
+    }
+
+    private static int jitter(int channel, Random random)
+    {
+        return Math.max(0, Math.min(255, (channel & 0xff) + random.nextInt(17) - 8));
+    }
+
+    private static int distance(int a, int b)
+    {
+        return Math.abs(((a >> 16) & 0xff) - ((b >> 16) & 0xff)) + Math.abs(((a >> 8) & 0xff) - ((b >> 8) & 0xff))
+                + Math.abs((a & 0xff) - (b & 0xff));
+    }
+
+    // The color the 5 bit histogram stores for rgb.
+    private static int approximate(int rgb)
+    {
+        int red = (rgb >> 19) & 0x1f;
+        int green = (rgb >> 11) & 0x1f;
+        int blue = (rgb >> 3) & 0x1f;
+
+        return 0xff000000 | (((red << 3) | (red >> 2)) << 16) | (((green << 3) | (green >> 2)) << 8) | ((blue << 3) | (blue >> 2));
+    }
+}
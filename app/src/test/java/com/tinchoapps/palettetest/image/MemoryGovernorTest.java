@@ -0,0 +1,76 @@
+package com.tinchoapps.palettetest.image;
+
+import org.junit.Test;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryGovernorTest
+{
+    private static final int[] RUNNING_LEVELS = {TRIM_MEMORY_RUNNING_MODERATE, TRIM_MEMORY_RUNNING_LOW, TRIM_MEMORY_RUNNING_CRITICAL};
+    private static final int[] BACKGROUND_LEVELS = {TRIM_MEMORY_UI_HIDDEN, TRIM_MEMORY_BACKGROUND, TRIM_MEMORY_MODERATE, TRIM_MEMORY_COMPLETE};
+
+    @Test
+    public void nothingIsTrimmedWithoutPressure()
+    {
+        assertEquals(100, MemoryGovernor.getCachePercent(0));
+        assertEquals(100, MemoryGovernor.getPoolPercent(0));
+    }
+
+    @Test
+    public void harderLevelsKeepLess()
+    {
+        assertNonIncreasing(RUNNING_LEVELS);
+        assertNonIncreasing(BACKGROUND_LEVELS);
+    }
+
+    @Test
+    public void poolGoesBeforeCaches()
+    {
+        int[][] groups = {RUNNING_LEVELS, BACKGROUND_LEVELS};
+
+        for (int[] levels : groups)
+        {
+            for (int level : levels)
+            {
+                assertTrue("Level " + level, MemoryGovernor.getPoolPercent(level) < MemoryGovernor.getCachePercent(level)
+                        || MemoryGovernor.getCachePercent(level) == 0);
+            }
+        }
+
+        assertEquals(0, MemoryGovernor.getPoolPercent(TRIM_MEMORY_RUNNING_CRITICAL));
+    }
+
+    @Test
+    public void likelyKillsEmptyEverything()
+    {
+        assertEquals(0, MemoryGovernor.getCachePercent(TRIM_MEMORY_MODERATE));
+        assertEquals(0, MemoryGovernor.getCachePercent(TRIM_MEMORY_COMPLETE));
+        assertEquals(0, MemoryGovernor.getPoolPercent(TRIM_MEMORY_MODERATE));
+        assertEquals(0, MemoryGovernor.getPoolPercent(TRIM_MEMORY_COMPLETE));
+    }
+
+    @Test
+    public void levelsBetweenConstantsUseTheLowerOne()
+    {
+        //The system may send levels that have no constant yet
+        assertEquals(MemoryGovernor.getCachePercent(TRIM_MEMORY_BACKGROUND), MemoryGovernor.getCachePercent(TRIM_MEMORY_BACKGROUND + 1));
+        assertEquals(MemoryGovernor.getCachePercent(TRIM_MEMORY_COMPLETE), MemoryGovernor.getCachePercent(TRIM_MEMORY_COMPLETE + 20));
+    }
+
+    private static void assertNonIncreasing(int[] levels)
+    {
+        for (int i = 1; i < levels.length; i++)
+        {
+            assertTrue("Level " + levels[i], MemoryGovernor.getCachePercent(levels[i]) <= MemoryGovernor.getCachePercent(levels[i - 1]));
+            assertTrue("Level " + levels[i], MemoryGovernor.getPoolPercent(levels[i]) <= MemoryGovernor.getPoolPercent(levels[i - 1]));
+        }
+    }
+}
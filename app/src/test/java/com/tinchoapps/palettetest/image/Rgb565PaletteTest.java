@@ -0,0 +1,167 @@
+package com.tinchoapps.palettetest.image;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The swatches of an image decoded to RGB_565, dithered as the decoder does, against the ones of
+ * the same image in ARGB_8888. Median cut may split the boxes a bit differently, so swatches are
+ * compared by how well they describe the original pixels rather than one by one.
+ */
+public class Rgb565PaletteTest
+{
+    private static final int SIDE = 112;
+    private static final int PIXEL_COUNT = SIDE * SIDE;
+    private static final int MAX_COLOR_COUNT = 16;
+    //Ordered dither, in 1/16 of the quantization step and centered on 8 so it doesn't shift colors
+    private static final int[] DITHER_MATRIX = {0, 8, 2, 10, 12, 4, 14, 6, 3, 11, 1, 9, 15, 7, 13, 5};
+    //How much worse the 565 swatches may describe the original pixels than the 8888 ones
+    private static final double MAX_ERROR_RATIO = 1.2;
+
+    @Test
+    public void undithered565KeepsTheSameSwatches()
+    {
+        int[] pixels = createPhotoLike(new Random(1));
+        int[] reduced = new int[PIXEL_COUNT];
+
+        for (int i = 0; i < PIXEL_COUNT; i++)
+        {
+            reduced[i] = toRgb565(pixels[i], 8);
+        }
+
+        //565 keeps at least the 5 bits per channel the histogram uses
+        assertArrayEquals(quantize(pixels), quantize(reduced));
+    }
+
+    @Test
+    public void dithered565SwatchesDescribeTheImageAsWell()
+    {
+        for (int seed = 0; seed < 20; seed++)
+        {
+            int[] pixels = createPhotoLike(new Random(seed));
+            int[] reduced = new int[PIXEL_COUNT];
+
+            for (int i = 0; i < PIXEL_COUNT; i++)
+            {
+                reduced[i] = toRgb565(pixels[i], DITHER_MATRIX[(i / SIDE % 4) * 4 + i % SIDE % 4]);
+            }
+
+            int[][] full = quantize(pixels);
+            int[][] dithered = quantize(reduced);
+            double fullError = getMeanError(pixels, full[0]);
+            double ditheredError = getMeanError(pixels, dithered[0]);
+
+            assertTrue(String.format("Seed %d: mean error %.1f in 565, %.1f in 8888", seed, ditheredError, fullError),
+                    ditheredError <= fullError * MAX_ERROR_RATIO);
+        }
+    }
+
+    // The colors and populations of the swatches, sorted by color.
+    private static int[][] quantize(int[] pixels)
+    {
+        int[] colors = new int[MAX_COLOR_COUNT];
+        int[] populations = new int[MAX_COLOR_COUNT];
+        int count = new MedianCutQuantizer().quantize(pixels, PIXEL_COUNT, MAX_COLOR_COUNT, colors, populations);
+        long[] sorted = new long[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            sorted[i] = ((long) (colors[i] & 0xffffff) << 32) | populations[i];
+        }
+
+        Arrays.sort(sorted);
+        int[][] result = new int[2][count];
+
+        for (int i = 0; i < count; i++)
+        {
+            result[0][i] = 0xff000000 | (int) (sorted[i] >>> 32);
+            result[1][i] = (int) sorted[i];
+        }
+
+        return result;
+    }
+
+    // Smooth gradients between a few dominant colors plus sensor noise.
+    private static int[] createPhotoLike(Random random)
+    {
+        int[] corners = new int[4];
+
+        for (int i = 0; i < corners.length; i++)
+        {
+            corners[i] = random.nextInt() & 0xffffff;
+        }
+
+        int[] pixels = new int[PIXEL_COUNT];
+
+        for (int y = 0; y < SIDE; y++)
+        {
+            for (int x = 0; x < SIDE; x++)
+            {
+                int color = 0xff000000;
+
+                for (int shift = 0; shift <= 16; shift += 8)
+                {
+                    float top = mix(corners[0] >> shift & 0xff, corners[1] >> shift & 0xff, x / (float) SIDE);
+                    float bottom = mix(corners[2] >> shift & 0xff, corners[3] >> shift & 0xff, x / (float) SIDE);
+                    int value = Math.round(mix(top, bottom, y / (float) SIDE)) + random.nextInt(7) - 3;
+                    color |= Math.max(0, Math.min(255, value)) << shift;
+                }
+
+                pixels[y * SIDE + x] = color;
+            }
+        }
+
+        return pixels;
+    }
+
+    private static float mix(float from, float to, float amount)
+    {
+        return from + (to - from) * amount;
+    }
+
+    // Reduce to 565 after adding dither (0..15, 8 adds nothing), and expand back to 8 bits per channel.
+    private static int toRgb565(int argb, int dither)
+    {
+        int red = reduce(argb >> 16 & 0xff, 5, dither);
+        int green = reduce(argb >> 8 & 0xff, 6, dither);
+        int blue = reduce(argb & 0xff, 5, dither);
+        return 0xff000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    private static int reduce(int value, int bits, int dither)
+    {
+        int step = 1 << (8 - bits);
+        int reduced = Math.max(0, Math.min(255, value + (dither - 8) * step / 16)) >> (8 - bits);
+        return (reduced << (8 - bits)) | (reduced >> (2 * bits - 8));
+    }
+
+    // Mean distance of each pixel to its closest swatch, how well the swatches describe the image.
+    private static double getMeanError(int[] pixels, int[] swatches)
+    {
+        long total = 0;
+
+        for (int pixel : pixels)
+        {
+            int closest = Integer.MAX_VALUE;
+
+            for (int swatch : swatches)
+            {
+                closest = Math.min(closest, distance(pixel, swatch));
+            }
+
+            total += closest;
+        }
+
+        return (double) total / pixels.length;
+    }
+
+    private static int distance(int a, int b)
+    {
+        return Math.abs((a >> 16 & 0xff) - (b >> 16 & 0xff)) + Math.abs((a >> 8 & 0xff) - (b >> 8 & 0xff)) + Math.abs((a & 0xff) - (b & 0xff));
+    }
+}
@@ -0,0 +1,144 @@
+package com.tinchoapps.palettetest.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BitmapUtilsTest
+{
+    private static final int ITERATIONS = 100000;
+    private static final int MAX_SIDE = 20000;
+
+    @Test
+    public void computeSampleSizeFitsPixelBudget()
+    {
+        Random random = new Random(1);
+
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            int width = 1 + random.nextInt(MAX_SIDE);
+            int height = 1 + random.nextInt(MAX_SIDE);
+            int maxNumOfPixels = 1 + random.nextInt(4 * 1024 * 1024);
+            int sampleSize = BitmapUtils.computeSampleSize(width, height, BitmapUtils.UNCONSTRAINED, maxNumOfPixels);
+
+            assertSupportedSampleSize(sampleSize);
+            assertTrue((double) width * height / ((double) sampleSize * sampleSize) <= maxNumOfPixels);
+        }
+    }
+
+    @Test
+    public void computeSampleSizeKeepsMinSide()
+    {
+        Random random = new Random(2);
+
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            int width = 1 + random.nextInt(MAX_SIDE);
+            int height = 1 + random.nextInt(MAX_SIDE);
+            int minSideLength = 1 + random.nextInt(Math.min(width, height));
+            int sampleSize = BitmapUtils.computeSampleSize(width, height, minSideLength, BitmapUtils.UNCONSTRAINED);
+
+            assertSupportedSampleSize(sampleSize);
+            //Rounded up to what BitmapFactory honors, so at most twice the exact sample size
+            assertTrue(sampleSize <= 2 * Math.max(1, Math.min(width / minSideLength, height / minSideLength)) + 7);
+        }
+    }
+
+    @Test
+    public void computeSampleSizeUnconstrainedIsOne()
+    {
+        assertEquals(1, BitmapUtils.computeSampleSize(8000, 6000, BitmapUtils.UNCONSTRAINED, BitmapUtils.UNCONSTRAINED));
+    }
+
+    @Test
+    public void computeSampleSizeLargerKeepsLongerSide()
+    {
+        Random random = new Random(3);
+
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            int width = 1 + random.nextInt(MAX_SIDE);
+            int height = 1 + random.nextInt(MAX_SIDE);
+            int minSideLength = 1 + random.nextInt(MAX_SIDE);
+            int sampleSize = BitmapUtils.computeSampleSizeLarger(width, height, minSideLength);
+
+            assertSupportedSampleSize(sampleSize);
+
+            if (sampleSize > 1)
+            {
+                assertTrue(Math.max(width, height) / sampleSize >= minSideLength);
+            }
+        }
+    }
+
+    @Test
+    public void computeSampleSizeLargerIsOneForSmallImages()
+    {
+        assertEquals(1, BitmapUtils.computeSampleSizeLarger(100, 50, 200));
+        assertEquals(1, BitmapUtils.computeSampleSizeLarger(300, 50, 200));
+        assertEquals(2, BitmapUtils.computeSampleSizeLarger(400, 50, 200));
+    }
+
+    @Test
+    public void computeSampleSizeByScale()
+    {
+        Random random = new Random(4);
+
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            float scale = 0.001f + random.nextFloat();
+            int smaller = BitmapUtils.computeSampleSize(scale);
+            int larger = BitmapUtils.computeSampleSizeLarger(scale);
+
+            assertSupportedSampleSize(smaller);
+            assertSupportedSampleSize(larger);
+            assertTrue(1f / smaller <= scale + 1e-6f);
+            assertTrue(larger == 1 || 1f / larger >= scale - 1e-6f);
+        }
+    }
+
+    @Test
+    public void decodeOfCameraImagesStaysWithinBudget()
+    {
+        //48, 64 and 108 MP sensors, in both orientations
+        int[][] images = {{8000, 6000}, {9248, 6936}, {12000, 9000}, {6000, 8000}, {6936, 9248}, {9000, 12000}};
+        int[][] views = {{720, 1280}, {1080, 1920}, {1440, 2560}, {1920, 1080}};
+
+        for (int[] image : images)
+        {
+            for (int[] view : views)
+            {
+                int maxSideLength = Math.max(view[0], view[1]);
+                //The budget ImageLoader decodes with
+                int maxNumOfPixels = view[0] * view[1] * 2;
+                int sampleSize = BitmapUtils.computeDecodeSampleSize(image[0], image[1], maxSideLength, maxNumOfPixels);
+                long decodedWidth = (image[0] + sampleSize - 1) / sampleSize;
+                long decodedHeight = (image[1] + sampleSize - 1) / sampleSize;
+                String size = image[0] + "x" + image[1] + " in " + view[0] + "x" + view[1];
+
+                assertSupportedSampleSize(sampleSize);
+                //A full decode would be 4 bytes for each of the tens of millions of pixels
+                assertTrue(size, decodedWidth * decodedHeight * 4 <= maxNumOfPixels * 4L * 101 / 100);
+                //Within the factor of 2 a power of 2 sample size can be off by
+                assertTrue(size, Math.max(decodedWidth, decodedHeight) * 2 >= maxSideLength);
+            }
+        }
+    }
+
+    @Test
+    public void decodeOfSmallImagesIsNotSampled()
+    {
+        assertEquals(1, BitmapUtils.computeDecodeSampleSize(640, 480, 1920, 1080 * 1920 * 2));
+        assertEquals(1, BitmapUtils.computeDecodeSampleSize(640, 480, BitmapUtils.UNCONSTRAINED, BitmapUtils.UNCONSTRAINED));
+    }
+
+    // BitmapFactory only honors powers of 2, so anything above 8 is a multiple of 8.
+    private static void assertSupportedSampleSize(int sampleSize)
+    {
+        assertTrue(sampleSize >= 1);
+        assertTrue(sampleSize <= 8 ? Integer.bitCount(sampleSize) == 1 : sampleSize % 8 == 0);
+    }
+}
@@ -0,0 +1,38 @@
+package com.tinchoapps.palettetest.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecodeConfigPolicyTest
+{
+    @Test
+    public void lowMemoryDevices()
+    {
+        assertTrue(DecodeConfigPolicy.isLowMemoryDevice(true, 256));
+        assertTrue(DecodeConfigPolicy.isLowMemoryDevice(false, 32));
+        assertTrue(DecodeConfigPolicy.isLowMemoryDevice(false, 64));
+        assertFalse(DecodeConfigPolicy.isLowMemoryDevice(false, 96));
+        assertFalse(DecodeConfigPolicy.isLowMemoryDevice(false, 512));
+    }
+
+    @Test
+    public void memoryPolicyOnlyReducesJpegs()
+    {
+        assertTrue(DecodeConfigPolicy.MEMORY.usesRgb565("image/jpeg"));
+        //Formats that may have alpha keep it
+        assertFalse(DecodeConfigPolicy.MEMORY.usesRgb565("image/png"));
+        assertFalse(DecodeConfigPolicy.MEMORY.usesRgb565("image/webp"));
+        assertFalse(DecodeConfigPolicy.MEMORY.usesRgb565("image/gif"));
+        assertFalse(DecodeConfigPolicy.MEMORY.usesRgb565(null));
+    }
+
+    @Test
+    public void qualityPolicyNeverReduces()
+    {
+        assertFalse(DecodeConfigPolicy.QUALITY.usesRgb565("image/jpeg"));
+        assertFalse(DecodeConfigPolicy.QUALITY.usesRgb565("image/png"));
+        assertFalse(DecodeConfigPolicy.QUALITY.usesRgb565(null));
+    }
+}
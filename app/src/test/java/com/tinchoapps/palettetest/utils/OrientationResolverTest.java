@@ -0,0 +1,187 @@
+package com.tinchoapps.palettetest.utils;
+
+import android.media.ExifInterface;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class OrientationResolverTest
+{
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_MAKE = 0x010F;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_ASCII = 2;
+
+    @Test
+    public void readsEveryOrientationInBothByteOrders() throws IOException
+    {
+        for (boolean littleEndian : new boolean[]{true, false})
+        {
+            for (int orientation = 1; orientation <= 8; orientation++)
+            {
+                byte[] jpeg = createJpeg(createExif(littleEndian, new int[]{TAG_MAKE, TAG_ORIENTATION}, new int[]{TYPE_ASCII, TYPE_SHORT},
+                        new int[]{0, orientation}));
+
+                assertEquals((littleEndian ? "II " : "MM ") + orientation, orientation, OrientationResolver.readOrientation(markable(jpeg)));
+            }
+        }
+    }
+
+    @Test
+    public void missingTagIsNormal() throws IOException
+    {
+        byte[] jpeg = createJpeg(createExif(true, new int[]{TAG_MAKE}, new int[]{TYPE_ASCII}, new int[]{0}));
+
+        assertEquals(ExifInterface.ORIENTATION_NORMAL, OrientationResolver.readOrientation(markable(jpeg)));
+    }
+
+    @Test
+    public void withoutExifIsNormal() throws IOException
+    {
+        assertEquals(ExifInterface.ORIENTATION_NORMAL, OrientationResolver.readOrientation(markable(createJpeg(null))));
+    }
+
+    @Test
+    public void notJpegIsNormal() throws IOException
+    {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+        assertEquals(ExifInterface.ORIENTATION_NORMAL, OrientationResolver.readOrientation(markable(png)));
+    }
+
+    @Test
+    public void orientationOfWrongTypeIsNormal() throws IOException
+    {
+        byte[] jpeg = createJpeg(createExif(false, new int[]{TAG_ORIENTATION}, new int[]{TYPE_ASCII}, new int[]{6}));
+
+        assertEquals(ExifInterface.ORIENTATION_NORMAL, OrientationResolver.readOrientation(markable(jpeg)));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedSegmentThrows() throws IOException
+    {
+        byte[] jpeg = createJpeg(createExif(true, new int[]{TAG_ORIENTATION}, new int[]{TYPE_SHORT}, new int[]{6}));
+
+        //Cut inside the APP1 segment, whose length says there is more
+        OrientationResolver.readOrientation(markable(Arrays.copyOf(jpeg, 30)));
+    }
+
+    @Test
+    public void truncatedIfdIsNormal() throws IOException
+    {
+        byte[] exif = createExif(true, new int[]{TAG_MAKE, TAG_ORIENTATION}, new int[]{TYPE_ASCII, TYPE_SHORT}, new int[]{0, 6});
+        //The segment ends in the middle of the orientation entry, with a consistent length
+        byte[] jpeg = createJpeg(Arrays.copyOf(exif, exif.length - 12));
+
+        assertEquals(ExifInterface.ORIENTATION_NORMAL, OrientationResolver.readOrientation(markable(jpeg)));
+    }
+
+    @Test
+    public void leavesStreamWhereItWas() throws IOException
+    {
+        byte[] jpeg = createJpeg(createExif(true, new int[]{TAG_ORIENTATION}, new int[]{TYPE_SHORT}, new int[]{3}));
+        InputStream in = markable(jpeg);
+
+        OrientationResolver.readOrientation(in);
+
+        assertEquals(0xFF, in.read());
+        assertEquals(0xD8, in.read());
+    }
+
+    private static InputStream markable(byte[] data)
+    {
+        return new ByteArrayInputStream(data);
+    }
+
+    // SOI, a JFIF APP0, the APP1 segment if any, then SOS and some scan data.
+    private static byte[] createJpeg(byte[] app1)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeShort(out, 0xFFD8, false);
+
+        writeShort(out, 0xFFE0, false);
+        writeShort(out, 2 + 5, false);
+        out.write('J');
+        out.write('F');
+        out.write('I');
+        out.write('F');
+        out.write(0);
+
+        if (app1 != null)
+        {
+            writeShort(out, 0xFFE1, false);
+            writeShort(out, 2 + app1.length, false);
+            out.write(app1, 0, app1.length);
+        }
+
+        writeShort(out, 0xFFDA, false);
+        writeShort(out, 2 + 4, false);
+        out.write(new byte[64], 0, 64);
+        return out.toByteArray();
+    }
+
+    // The Exif header and a TIFF header with IFD0 holding one entry per tag.
+    private static byte[] createExif(boolean littleEndian, int[] tags, int[] types, int[] values)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('E');
+        out.write('x');
+        out.write('i');
+        out.write('f');
+        out.write(0);
+        out.write(0);
+
+        out.write(littleEndian ? 'I' : 'M');
+        out.write(littleEndian ? 'I' : 'M');
+        writeShort(out, 42, littleEndian);
+        writeInt(out, 8, littleEndian);
+
+        writeShort(out, tags.length, littleEndian);
+
+        for (int i = 0; i < tags.length; i++)
+        {
+            writeShort(out, tags[i], littleEndian);
+            writeShort(out, types[i], littleEndian);
+            writeInt(out, 1, littleEndian);
+            //A short value is left aligned in the 4 bytes of the value
+            writeShort(out, values[i], littleEndian);
+            writeShort(out, 0, littleEndian);
+        }
+
+        writeInt(out, 0, littleEndian);
+        return out.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value, boolean littleEndian)
+    {
+        if (littleEndian)
+        {
+            out.write(value & 0xFF);
+            out.write((value >> 8) & 0xFF);
+        } else
+        {
+            out.write((value >> 8) & 0xFF);
+            out.write(value & 0xFF);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value, boolean littleEndian)
+    {
+        if (littleEndian)
+        {
+            writeShort(out, value & 0xFFFF, true);
+            writeShort(out, (value >> 16) & 0xFFFF, true);
+        } else
+        {
+            writeShort(out, (value >> 16) & 0xFFFF, false);
+            writeShort(out, value & 0xFFFF, false);
+        }
+    }
+}
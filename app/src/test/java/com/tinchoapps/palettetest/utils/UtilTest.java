@@ -0,0 +1,78 @@
+package com.tinchoapps.palettetest.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UtilTest
+{
+    private static final int ITERATIONS = 100000;
+
+    @Test
+    public void nextPowerOf2IsSmallestPowerOf2NotBelowInput()
+    {
+        Random random = new Random(1);
+
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            int n = 1 + random.nextInt(1 << 30);
+            int power = Util.nextPowerOf2(n);
+
+            assertEquals(1, Integer.bitCount(power));
+            assertTrue(power >= n);
+            assertTrue(power / 2 < n);
+        }
+    }
+
+    @Test
+    public void nextPowerOf2KeepsPowersOf2()
+    {
+        for (int shift = 0; shift <= 30; shift++)
+        {
+            assertEquals(1 << shift, Util.nextPowerOf2(1 << shift));
+        }
+    }
+
+    @Test
+    public void nextPowerOf2RejectsInvalidInput()
+    {
+        int[] invalid = {0, -1, Integer.MIN_VALUE, (1 << 30) + 1, Integer.MAX_VALUE};
+
+        for (int n : invalid)
+        {
+            try
+            {
+                Util.nextPowerOf2(n);
+                fail("Accepted " + n);
+            } catch (IllegalArgumentException ignored)
+            {
+            }
+        }
+    }
+
+    @Test
+    public void prevPowerOf2IsLargestPowerOf2NotAboveInput()
+    {
+        Random random = new Random(2);
+
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            int n = 1 + random.nextInt(Integer.MAX_VALUE);
+            int power = Util.prevPowerOf2(n);
+
+            assertEquals(1, Integer.bitCount(power));
+            assertTrue(power <= n);
+            assertTrue((long) power * 2 > n);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void prevPowerOf2RejectsZero()
+    {
+        Util.prevPowerOf2(0);
+    }
+}
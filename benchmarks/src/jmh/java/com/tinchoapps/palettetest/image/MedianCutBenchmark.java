@@ -0,0 +1,60 @@
+package com.tinchoapps.palettetest.image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The int[] core of the palette quantization, on pixels of the size the extractor scales
+ * bitmaps down to.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MedianCutBenchmark
+{
+    private static final int PIXEL_COUNT = 112 * 112;
+    private static final int MAX_COLOR_COUNT = 16;
+
+    /**
+     * Distinct colors the pixels are drawn from, few for flat images and many for photos.
+     */
+    @Param({"8", "512", "32768"})
+    public int colorCount;
+
+    private final MedianCut medianCut = new MedianCut();
+    private final int[] pixels = new int[PIXEL_COUNT];
+    private final int[] colors = new int[MAX_COLOR_COUNT];
+    private final int[] populations = new int[MAX_COLOR_COUNT];
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(1);
+        int[] palette = new int[colorCount];
+
+        for (int i = 0; i < palette.length; i++)
+        {
+            palette[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+
+        for (int i = 0; i < PIXEL_COUNT; i++)
+        {
+            pixels[i] = palette[random.nextInt(palette.length)];
+        }
+    }
+
+    @Benchmark
+    public int quantize()
+    {
+        return medianCut.quantize(pixels, PIXEL_COUNT, MAX_COLOR_COUNT, colors, populations);
+    }
+}
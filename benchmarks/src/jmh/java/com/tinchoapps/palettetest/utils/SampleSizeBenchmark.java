@@ -0,0 +1,74 @@
+package com.tinchoapps.palettetest.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The sample size math run for every decode, over sizes from thumbnails to 108 MP sensors.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SampleSizeBenchmark
+{
+    private static final int SIZES = 1024;
+    private static final int MAX_SIDE = 12000;
+    private static final int MAX_NUM_OF_PIXELS = 1920 * 1080 * 2;
+    private static final int MAX_SIDE_LENGTH = 1920;
+
+    private final int[] widths = new int[SIZES];
+    private final int[] heights = new int[SIZES];
+    private int next;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(1);
+
+        for (int i = 0; i < SIZES; i++)
+        {
+            widths[i] = 1 + random.nextInt(MAX_SIDE);
+            heights[i] = 1 + random.nextInt(MAX_SIDE);
+        }
+    }
+
+    @Benchmark
+    public int computeSampleSize()
+    {
+        int i = nextIndex();
+        return SampleSizeUtils.computeSampleSize(widths[i], heights[i], SampleSizeUtils.UNCONSTRAINED, MAX_NUM_OF_PIXELS);
+    }
+
+    @Benchmark
+    public int computeSampleSizeLarger()
+    {
+        int i = nextIndex();
+        return SampleSizeUtils.computeSampleSizeLarger(widths[i], heights[i], MAX_SIDE_LENGTH);
+    }
+
+    @Benchmark
+    public int nextPowerOf2()
+    {
+        return SampleSizeUtils.nextPowerOf2(widths[nextIndex()]);
+    }
+
+    @Benchmark
+    public int prevPowerOf2()
+    {
+        return SampleSizeUtils.prevPowerOf2(widths[nextIndex()]);
+    }
+
+    private int nextIndex()
+    {
+        next = (next + 1) & (SIZES - 1);
+        return next;
+    }
+}
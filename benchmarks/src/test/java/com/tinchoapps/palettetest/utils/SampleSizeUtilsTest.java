@@ -0,0 +1,104 @@
+package com.tinchoapps.palettetest.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Overflow properties of the sample size math, over the whole int range the benchmarks only
+ * sample.
+ */
+public class SampleSizeUtilsTest
+{
+    private static final int ITERATIONS = 100000;
+
+    @Test
+    public void computeSampleSizeDoesNotOverflowOnHugeImages()
+    {
+        //100000 * 100000 overflows an int
+        int sampleSize = SampleSizeUtils.computeSampleSize(100000, 100000, SampleSizeUtils.UNCONSTRAINED, 1000000);
+
+        assertEquals(104, sampleSize);
+
+        sampleSize = SampleSizeUtils.computeSampleSize(Integer.MAX_VALUE, Integer.MAX_VALUE, SampleSizeUtils.UNCONSTRAINED, 1);
+
+        assertTrue(sampleSize >= Integer.MAX_VALUE / 8 * 8);
+    }
+
+    @Test
+    public void computeSampleSizeFitsPixelBudgetOfAnySize()
+    {
+        Random random = new Random(1);
+
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            int width = 1 + random.nextInt(Integer.MAX_VALUE);
+            int height = 1 + random.nextInt(Integer.MAX_VALUE);
+            int maxNumOfPixels = 1 + random.nextInt(Integer.MAX_VALUE);
+            int sampleSize = SampleSizeUtils.computeSampleSize(width, height, SampleSizeUtils.UNCONSTRAINED, maxNumOfPixels);
+            String size = width + "x" + height + " in " + maxNumOfPixels;
+
+            assertSupportedSampleSize(size, sampleSize);
+
+            //Unless clamped at the largest sample size an int holds
+            if (sampleSize < Integer.MAX_VALUE / 8 * 8)
+            {
+                assertTrue(size, (double) width * height / ((double) sampleSize * sampleSize) <= maxNumOfPixels);
+            }
+        }
+    }
+
+    @Test
+    public void computeSampleSizeWithMinSideOfAnySize()
+    {
+        Random random = new Random(2);
+
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            int width = 1 + random.nextInt(Integer.MAX_VALUE);
+            int height = 1 + random.nextInt(Integer.MAX_VALUE);
+            int minSideLength = 1 + random.nextInt(Math.min(width, height));
+
+            assertSupportedSampleSize(width + "x" + height + " to " + minSideLength,
+                    SampleSizeUtils.computeSampleSize(width, height, minSideLength, SampleSizeUtils.UNCONSTRAINED));
+        }
+    }
+
+    @Test
+    public void computeSampleSizeLargerOfAnySize()
+    {
+        Random random = new Random(3);
+
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            int width = 1 + random.nextInt(Integer.MAX_VALUE);
+            int height = 1 + random.nextInt(Integer.MAX_VALUE);
+            int minSideLength = 1 + random.nextInt(Integer.MAX_VALUE);
+            int sampleSize = SampleSizeUtils.computeSampleSizeLarger(width, height, minSideLength);
+            String size = width + "x" + height + " to " + minSideLength;
+
+            assertSupportedSampleSize(size, sampleSize);
+            assertTrue(size, sampleSize == 1 || Math.max(width, height) / sampleSize >= minSideLength);
+        }
+    }
+
+    @Test
+    public void powersOf2AtTheEndsOfTheRange()
+    {
+        assertEquals(1 << 30, SampleSizeUtils.nextPowerOf2((1 << 29) + 1));
+        assertEquals(1 << 30, SampleSizeUtils.nextPowerOf2(1 << 30));
+        assertEquals(1 << 30, SampleSizeUtils.prevPowerOf2(Integer.MAX_VALUE));
+        assertEquals(1, SampleSizeUtils.nextPowerOf2(1));
+        assertEquals(1, SampleSizeUtils.prevPowerOf2(1));
+    }
+
+    // BitmapFactory only honors powers of 2, so anything above 8 is a multiple of 8.
+    private static void assertSupportedSampleSize(String message, int sampleSize)
+    {
+        assertTrue(message, sampleSize >= 1);
+        assertTrue(message, sampleSize <= 8 ? Integer.bitCount(sampleSize) == 1 : sampleSize % 8 == 0);
+    }
+}